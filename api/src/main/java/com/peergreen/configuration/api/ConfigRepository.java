@@ -74,6 +74,15 @@ public interface ConfigRepository {
      */
     Write init(Version version) throws RepositoryException;
 
+    /**
+     * Computes the paths added, modified or removed between two versions.
+     *
+     * @param oldVersion the version of reference, null for the initial empty content
+     * @param newVersion the compared version, null for the initial empty content
+     * @return the changes ordered by path
+     */
+    List<PathChange> diff(Version oldVersion, Version newVersion) throws RepositoryException;
+
     /**
      * true if repository manages history
      *
@@ -81,4 +90,27 @@ public interface ConfigRepository {
      */
     boolean supportsHistory();
 
+    /**
+     * Registers a listener notified of the new versions and of the production switches.
+     *
+     * @param listener
+     */
+    void addRepositoryListener(RepositoryListener listener);
+
+    /**
+     * Unregisters a listener.
+     *
+     * @param listener
+     */
+    void removeRepositoryListener(RepositoryListener listener);
+
+    /**
+     * Releases this access to the repository. Each repository obtained from a configuration needs to be closed once
+     * it is no longer used: a repository shared by several callers is only released when all of them have closed
+     * their access, and the reads and writes obtained from it can't be used afterwards.
+     *
+     * @throws RepositoryException
+     */
+    void close() throws RepositoryException;
+
 }
@@ -0,0 +1,57 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.api;
+
+/**
+ * Change of a path between two versions.
+ * @author Florent Benoit
+ */
+public class PathChange {
+
+    /**
+     * Kind of change.
+     */
+    public enum Type {
+        ADDED, MODIFIED, REMOVED
+    }
+
+    private final String path;
+
+    private final Type type;
+
+    public PathChange(String path, Type type) {
+        this.path = path;
+        this.type = type;
+    }
+
+    /**
+     * @return the path, using '/' as separator
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + path;
+    }
+
+}
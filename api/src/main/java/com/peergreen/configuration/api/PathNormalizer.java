@@ -0,0 +1,88 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.api;
+
+import java.io.File;
+
+/**
+ * Normalizes the path of the resources without any access to the file system.
+ * @author Florent Benoit
+ */
+public final class PathNormalizer {
+
+    private PathNormalizer() {
+    }
+
+    /**
+     * Normalizes the given path: '/' and the separator of the platform both separate the segments,
+     * empty and '.' segments are dropped and '..' segments remove the previous one.
+     * @param path the path of a resource
+     * @return the path relative to the root of the repository, using '/' as separator
+     * @throws RepositoryException if the path is empty or goes outside of the repository
+     */
+    public static String normalize(String path) throws RepositoryException {
+        return normalize(path, false);
+    }
+
+    /**
+     * Normalizes the given path, see {@link #normalize(String)}.
+     * @param path the path of a resource or of a directory
+     * @param allowRoot true if the path may name the root of the repository
+     * @return the path relative to the root of the repository, empty for the root
+     * @throws RepositoryException if the path goes outside of the repository, or if it is empty and the root is not allowed
+     */
+    static String normalize(String path, boolean allowRoot) throws RepositoryException {
+        if (path == null) {
+            throw new RepositoryException("Needs to specify a non-null path");
+        }
+
+        StringBuilder sb = new StringBuilder(path.length());
+        int start = 0;
+        int length = path.length();
+        while (start <= length) {
+            int end = start;
+            while (end < length && !isSeparator(path.charAt(end))) {
+                end++;
+            }
+            int segmentLength = end - start;
+            if (segmentLength == 2 && path.charAt(start) == '.' && path.charAt(start + 1) == '.') {
+                // Go up one level
+                if (sb.length() == 0) {
+                    throw new RepositoryException("Try to access a resource '" + path + "' in a different directory than the repository, this is forbidden");
+                }
+                int previous = sb.lastIndexOf("/");
+                sb.setLength(Math.max(previous, 0));
+            } else if (segmentLength > 0 && !(segmentLength == 1 && path.charAt(start) == '.')) {
+                if (sb.length() > 0) {
+                    sb.append('/');
+                }
+                sb.append(path, start, end);
+            }
+            start = end + 1;
+        }
+
+        if (sb.length() == 0 && !allowRoot) {
+            throw new RepositoryException("The path '" + path + "' does not name a resource of the repository");
+        }
+        return sb.toString();
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '/' || c == File.separatorChar;
+    }
+
+}
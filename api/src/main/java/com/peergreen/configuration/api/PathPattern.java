@@ -0,0 +1,179 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.api;
+
+import java.util.regex.Pattern;
+
+/**
+ * Selects the paths of a version, either by a directory prefix or by a glob.
+ * <ul>
+ * <li>A prefix without any wildcard selects the path itself and all the paths below it, e.g. <code>datasources</code>.
+ * An empty prefix selects all the paths.</li>
+ * <li>A glob may use <code>*</code> and <code>?</code> inside a segment, <code>**</code> across segments,
+ * <code>[abc]</code> and <code>{a,b}</code>, e.g. <code>datasources/**&#47;*.xml</code>.</li>
+ * </ul>
+ * The leading segments without wildcards give the base directory, only this directory needs to be listed.
+ * @author Florent Benoit
+ */
+public final class PathPattern {
+
+    private static final String GLOB_CHARS = "*?[{";
+
+    private final String baseDirectory;
+
+    private final String prefix;
+
+    private final Pattern glob;
+
+    private PathPattern(String baseDirectory, String prefix, Pattern glob) {
+        this.baseDirectory = baseDirectory;
+        this.prefix = prefix;
+        this.glob = glob;
+    }
+
+    /**
+     * @param filter a directory prefix or a glob, using '/' as separator
+     * @return the compiled pattern
+     * @throws RepositoryException if the filter is null or goes outside of the repository
+     */
+    public static PathPattern compile(String filter) throws RepositoryException {
+        if (filter == null) {
+            throw new RepositoryException("Needs to specify a non-null filter");
+        }
+        if (!isGlob(filter)) {
+            String prefix = PathNormalizer.normalize(filter, true);
+            return new PathPattern(prefix, prefix, null);
+        }
+
+        // Literal leading segments, the last segment always names entries
+        String[] segments = filter.split("/");
+        StringBuilder baseDirectory = new StringBuilder();
+        StringBuilder regex = new StringBuilder();
+        boolean literal = true;
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            if (segment.isEmpty() || ".".equals(segment)) {
+                continue;
+            }
+            if ("..".equals(segment)) {
+                throw new RepositoryException("Try to list the resources of '" + filter + "' in a different directory than the repository, this is forbidden");
+            }
+            boolean last = i == segments.length - 1;
+            if (literal && !last && !isGlob(segment)) {
+                if (baseDirectory.length() > 0) {
+                    baseDirectory.append('/');
+                }
+                baseDirectory.append(segment);
+            } else {
+                literal = false;
+            }
+            if ("**".equals(segment)) {
+                // Any number of segments, including none
+                regex.append(last ? ".*" : "(?:[^/]*/)*");
+            } else {
+                appendGlob(regex, segment);
+                if (!last) {
+                    regex.append('/');
+                }
+            }
+        }
+        return new PathPattern(baseDirectory.toString(), null, Pattern.compile(regex.toString()));
+    }
+
+    private static boolean isGlob(String filter) {
+        for (int i = 0; i < filter.length(); i++) {
+            if (GLOB_CHARS.indexOf(filter.charAt(i)) != -1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void appendGlob(StringBuilder regex, String segment) {
+        boolean inGroup = false;
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            switch (c) {
+                case '*':
+                    regex.append("[^/]*");
+                    break;
+                case '?':
+                    regex.append("[^/]");
+                    break;
+                case '[':
+                    int end = segment.indexOf(']', i + 1);
+                    if (end == -1) {
+                        regex.append("\\[");
+                    } else {
+                        String set = segment.substring(i + 1, end);
+                        if (set.startsWith("!")) {
+                            set = "^".concat(set.substring(1));
+                        }
+                        regex.append('[').append(set.replace("\\", "\\\\")).append(']');
+                        i = end;
+                    }
+                    break;
+                case '{':
+                    inGroup = true;
+                    regex.append("(?:");
+                    break;
+                case '}':
+                    if (inGroup) {
+                        inGroup = false;
+                        regex.append(')');
+                    } else {
+                        regex.append("\\}");
+                    }
+                    break;
+                case ',':
+                    regex.append(inGroup ? "|" : ",");
+                    break;
+                default:
+                    if (Character.isLetterOrDigit(c)) {
+                        regex.append(c);
+                    } else {
+                        regex.append('\\').append(c);
+                    }
+            }
+        }
+        if (inGroup) {
+            regex.append(')');
+        }
+    }
+
+    /**
+     * @return the directory containing all the selected paths, empty for the root of the version
+     */
+    public String getBaseDirectory() {
+        return baseDirectory;
+    }
+
+    /**
+     * @param path a path using '/' as separator
+     * @return true if the path is selected
+     */
+    public boolean matches(String path) {
+        if (glob != null) {
+            return glob.matcher(path).matches();
+        }
+        if (prefix.isEmpty()) {
+            return true;
+        }
+        return path.equals(prefix) || (path.startsWith(prefix) && path.length() > prefix.length() && path.charAt(prefix.length()) == '/');
+    }
+
+}
@@ -0,0 +1,32 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.api;
+
+/**
+ * Receives the paths of a version one by one, while the version is walked.
+ * @author Florent Benoit
+ */
+public interface PathVisitor {
+
+    /**
+     * @param path the current path
+     * @return true to go on with the next path, false to stop the walk
+     * @throws RepositoryException to stop the walk with an error
+     */
+    boolean visit(Path path) throws RepositoryException;
+
+}
@@ -16,7 +16,11 @@
 
 package com.peergreen.configuration.api;
 
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  *
@@ -26,6 +30,55 @@ public interface Read {
 
     List<Path> getPaths() throws RepositoryException;
 
+    /**
+     * Lists only the paths selected by a directory prefix or a glob, see {@link PathPattern}.
+     * Only the base directory of the filter is listed.
+     * @param filter a directory prefix, e.g. <code>datasources</code>, or a glob, e.g. <code>datasources/**&#47;*.xml</code>
+     * @return the selected paths
+     * @throws RepositoryException if the filter is invalid or if the paths can't be listed
+     */
+    List<Path> getPaths(String filter) throws RepositoryException;
+
+    /**
+     * Walks the paths without building a list of all of them, the walk can be stopped by the visitor.
+     * @param visitor the visitor receiving each path
+     * @return true if all the paths have been visited, false if the visitor stopped the walk
+     * @throws RepositoryException if the paths can't be walked or if the visitor failed
+     */
+    boolean walkPaths(PathVisitor visitor) throws RepositoryException;
+
+    /**
+     * Walks the paths selected by a directory prefix or a glob, see {@link #getPaths(String)}.
+     * @param filter a directory prefix or a glob
+     * @param visitor the visitor receiving each selected path
+     * @return true if all the paths have been visited, false if the visitor stopped the walk
+     * @throws RepositoryException if the paths can't be walked or if the visitor failed
+     */
+    boolean walkPaths(String filter, PathVisitor visitor) throws RepositoryException;
+
     VersionedResource getResource(String path) throws RepositoryException;
 
+    /**
+     * Gets several resources at once, they are resolved in a single pass when possible.
+     * @param paths the paths of the resources
+     * @return the resources found, by their requested path. Paths that are not found are not in the map
+     * @throws RepositoryException if a path is outside of the repository or if the resources can't be resolved
+     */
+    Map<String, VersionedResource> getResources(Collection<String> paths) throws RepositoryException;
+
+    /**
+     * Exports all the resources as a zip archive, in one pass over the paths and without any temporary file.
+     * The output is not closed.
+     * @param output the stream receiving the archive
+     * @throws RepositoryException if the resources can't be read or if the archive can't be written
+     */
+    void export(OutputStream output) throws RepositoryException;
+
+    /**
+     * Exports all the resources as a zip archive, see {@link #export(OutputStream)}. The channel is not closed.
+     * @param channel the channel receiving the archive
+     * @throws RepositoryException if the resources can't be read or if the archive can't be written
+     */
+    void export(WritableByteChannel channel) throws RepositoryException;
+
 }
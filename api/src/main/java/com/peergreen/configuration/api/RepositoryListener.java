@@ -0,0 +1,43 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.api;
+
+import java.util.List;
+
+/**
+ * Listener notified of the changes of a repository, made by this process or by another one.
+ * Notifications are sent by the thread which detected the change, they should be handled quickly.
+ * @author Florent Benoit
+ */
+public interface RepositoryListener {
+
+    /**
+     * A new version has been tagged.
+     * @param version the new version
+     */
+    void versionAdded(Version version);
+
+    /**
+     * The production version has been switched.
+     * @param oldVersion the previous production version, null if there was none
+     * @param newVersion the new production version
+     * @param changes the paths of the production view that have been added, modified or removed by the switch,
+     * null if they could not be computed
+     */
+    void productionVersionChanged(Version oldVersion, Version newVersion, List<PathChange> changes);
+
+}
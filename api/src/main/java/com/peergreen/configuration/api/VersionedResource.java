@@ -16,6 +16,10 @@
 
 package com.peergreen.configuration.api;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
 /**
  *
  * @author Florent Benoit
@@ -28,4 +32,26 @@ public interface VersionedResource extends Resource {
 
     long getSize();
 
+    /**
+     * Opens a channel on the content of this resource.
+     * @return a channel that needs to be closed by the caller
+     * @throws RepositoryException if the content can't be opened
+     */
+    ReadableByteChannel openChannel() throws RepositoryException;
+
+    /**
+     * Writes the whole content of this resource to the given channel, avoiding copies through the heap when possible.
+     * The given channel is not closed.
+     * @param target the channel to write to
+     * @return the number of bytes written
+     * @throws RepositoryException if the content can't be transferred
+     */
+    long transferTo(WritableByteChannel target) throws RepositoryException;
+
+    /**
+     * @return a read-only view on the whole content of this resource
+     * @throws RepositoryException if the content can't be read
+     */
+    ByteBuffer getByteBuffer() throws RepositoryException;
+
 }
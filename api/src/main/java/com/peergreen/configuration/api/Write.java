@@ -16,6 +16,8 @@
 
 package com.peergreen.configuration.api;
 
+import java.io.InputStream;
+
 /**
  *
  * @author Florent Benoit
@@ -28,6 +30,45 @@ public interface Write extends Read {
 
     void tag(Version version) throws RepositoryException;
 
+    // Archive methods
+
+    /**
+     * Imports all the files of a zip archive as a single change (one step for undo/redo), the directories are ignored.
+     * Files of the archive replace the resources with the same path, the other resources are kept.
+     * In a batch, the files are staged with the other changes.
+     * @param input the stream of the archive, it is not closed
+     * @throws RepositoryException if the archive can't be read or if one of its paths is outside of the repository
+     */
+    void importArchive(InputStream input) throws RepositoryException;
+
+    /**
+     * Imports all the files of a zip archive, see {@link #importArchive(InputStream)}, then tags the result.
+     * @param input the stream of the archive, it is not closed
+     * @param version the version to tag, null to only import the archive
+     * @throws RepositoryException if the archive can't be imported or if the version can't be tagged
+     */
+    void importArchive(InputStream input, Version version) throws RepositoryException;
+
+    // Batch methods
+
+    /**
+     * Starts a batch: next pushed and removed resources are staged and applied all at once by {@link #commitBatch()}.
+     * Staged changes are not visible until the batch is committed and pushed resources need to stay readable until then.
+     */
+    void beginBatch() throws RepositoryException;
+
+    /**
+     * Applies all the staged changes as a single change (one step for undo/redo).
+     */
+    void commitBatch() throws RepositoryException;
+
+    /**
+     * Drops all the staged changes.
+     */
+    void cancelBatch() throws RepositoryException;
+
+    boolean isInBatch();
+
     // History methods
 
     void resetChanges(String path) throws RepositoryException;
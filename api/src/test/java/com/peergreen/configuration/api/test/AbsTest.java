@@ -17,9 +17,12 @@
 package com.peergreen.configuration.api.test;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.util.List;
 import java.util.UUID;
 
@@ -112,6 +115,18 @@ public abstract class AbsTest {
         // Check size
         Assert.assertEquals(newContent.getBytes().length, getResource.getSize());
 
+        // Check channel access
+        Assert.assertEquals(readContent(Channels.newInputStream(getResource.openChannel())), newContent);
+        ByteBuffer buffer = getResource.getByteBuffer();
+        Assert.assertTrue(buffer.isReadOnly());
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        Assert.assertEquals(new String(bytes), newContent);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        long transferred = getResource.transferTo(Channels.newChannel(outputStream));
+        Assert.assertEquals(transferred, getResource.getSize());
+        Assert.assertEquals(new String(outputStream.toByteArray()), newContent);
+
         // should have be done in less than one second
         long lastModified = getResource.lastModified();
         Assert.assertTrue(Math.abs(lastModified - now) < 1000);
@@ -0,0 +1,176 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.api.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.peergreen.configuration.api.ConfigRepository;
+import com.peergreen.configuration.api.RepositoryException;
+import com.peergreen.configuration.api.Version;
+import com.peergreen.configuration.api.Write;
+
+/**
+ * Check the export of a version as an archive and its import.
+ * @author Florent Benoit
+ */
+@Test
+public class TestArchiveRepository extends AbsTest {
+
+    private static final String[] PATHS = {"datasources/db1.xml", "datasources/old/db0.xml", "security/users.xml", "server.xml"};
+
+    private final ConfigRepository repository;
+
+    private Write write;
+
+    private Version version;
+
+    public TestArchiveRepository(ConfigRepository repository) {
+        this.repository = repository;
+    }
+
+    @Test
+    public void populate() throws RepositoryException {
+        this.write = repository.init();
+        for (String path : PATHS) {
+            write.pushResource(path, new DummyContentResource("content of " + path));
+        }
+        this.version = new DummyVersion(UUID.randomUUID().toString());
+        write.tag(version);
+    }
+
+    @Test(dependsOnMethods="populate")
+    public void exportStream() throws RepositoryException, IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        repository.read(version).export(output);
+        checkArchive(output.toByteArray(), PATHS);
+    }
+
+    @Test(dependsOnMethods="populate")
+    public void exportChannel() throws RepositoryException, IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        repository.read(version).export(Channels.newChannel(output));
+        checkArchive(output.toByteArray(), PATHS);
+    }
+
+    @Test(dependsOnMethods="populate")
+    public void exportWrite() throws RepositoryException, IOException {
+        Write other = repository.init(version);
+        other.removeResource("server.xml");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        other.export(output);
+        checkArchive(output.toByteArray(), "datasources/db1.xml", "datasources/old/db0.xml", "security/users.xml");
+    }
+
+    @Test(dependsOnMethods="exportStream")
+    public void importArchive() throws RepositoryException, IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        repository.read(version).export(output);
+
+        Write other = repository.init();
+        other.pushResource("other.xml", new DummyContentResource("content of other.xml"));
+        Version imported = new DummyVersion(UUID.randomUUID().toString());
+        other.importArchive(new ByteArrayInputStream(output.toByteArray()), imported);
+
+        // Archive is added to the existing resources
+        ByteArrayOutputStream importedOutput = new ByteArrayOutputStream();
+        repository.read(imported).export(importedOutput);
+        checkArchive(importedOutput.toByteArray(), "datasources/db1.xml", "datasources/old/db0.xml", "security/users.xml", "server.xml", "other.xml");
+    }
+
+    @Test(dependsOnMethods="populate")
+    public void importArchiveInBatch() throws RepositoryException, IOException {
+        Write other = repository.init();
+        other.beginBatch();
+        other.importArchive(new ByteArrayInputStream(createArchive("server.xml", "security/users.xml")));
+        Assert.assertNull(other.getResource("server.xml"));
+        other.commitBatch();
+        Assert.assertEquals(other.getResource("server.xml").getSize(), "content of server.xml".length());
+        Assert.assertEquals(other.getResource("security/users.xml").getSize(), "content of security/users.xml".length());
+    }
+
+    @Test(dependsOnMethods="populate", expectedExceptions=RepositoryException.class)
+    public void importArchiveOutside() throws RepositoryException, IOException {
+        repository.init().importArchive(new ByteArrayInputStream(createArchive("../outside.xml")));
+    }
+
+    @Test(dependsOnMethods="populate")
+    public void importInvalidArchive() throws RepositoryException, IOException {
+        Write other = repository.init();
+        other.pushResource("kept.xml", new DummyContentResource("content of kept.xml"));
+        try {
+            other.importArchive(new ByteArrayInputStream(createArchive("imported.xml", "kept.xml/entry.xml", "../outside.xml")));
+            Assert.fail("shouldn't be able to import an archive with an invalid entry");
+        } catch (RepositoryException e) {
+            // expected
+        }
+
+        // No entry of the archive has been imported
+        Assert.assertNull(other.getResource("imported.xml"));
+        Assert.assertEquals(getContent(other, "kept.xml"), "content of kept.xml");
+    }
+
+    protected byte[] createArchive(String... paths) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(output)) {
+            for (String path : paths) {
+                zipOutputStream.putNextEntry(new ZipEntry(path));
+                zipOutputStream.write(("content of " + path).getBytes());
+                zipOutputStream.closeEntry();
+            }
+        }
+        return output.toByteArray();
+    }
+
+    protected void checkArchive(byte[] archive, String... expected) throws IOException {
+        Map<String, String> entries = readArchive(new ByteArrayInputStream(archive));
+        Assert.assertEquals(entries.size(), expected.length, "Entries: " + entries.keySet());
+        for (String path : expected) {
+            Assert.assertEquals(entries.get(path), "content of " + path);
+        }
+    }
+
+    protected Map<String, String> readArchive(InputStream input) throws IOException {
+        Map<String, String> entries = new HashMap<String, String>();
+        try (ZipInputStream zipInputStream = new ZipInputStream(input)) {
+            ZipEntry zipEntry;
+            while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = zipInputStream.read(buffer)) != -1) {
+                    content.write(buffer, 0, read);
+                }
+                entries.put(zipEntry.getName(), content.toString());
+            }
+        }
+        return entries;
+    }
+
+}
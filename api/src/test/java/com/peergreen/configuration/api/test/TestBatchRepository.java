@@ -0,0 +1,161 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.api.test;
+
+import java.io.IOException;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.peergreen.configuration.api.ConfigRepository;
+import com.peergreen.configuration.api.RepositoryException;
+import com.peergreen.configuration.api.Write;
+
+/**
+ * Check that changes staged in a batch are applied at once.
+ * @author Florent Benoit
+ */
+@Test
+public class TestBatchRepository extends AbsTest {
+
+    private static final String FILE1 = "batch/file1.xml";
+    private static final String FILE2 = "batch/file2.xml";
+    private static final String FILE3 = "batch/file3.xml";
+
+    private final ConfigRepository repository;
+
+    private Write write;
+
+    public TestBatchRepository(ConfigRepository repository) {
+        this.repository = repository;
+    }
+
+    @Test
+    public void commitBatch() throws IOException, RepositoryException {
+        this.write = repository.init();
+        Assert.assertFalse(write.isInBatch());
+
+        write.beginBatch();
+        Assert.assertTrue(write.isInBatch());
+        write.pushResource(FILE1, new DummyContentResource("batch1"));
+        write.pushResource(FILE2, new DummyContentResource("batch2"));
+        write.pushResource(FILE3, new DummyContentResource("batch3"));
+
+        // Nothing is visible before the commit
+        Assert.assertNull(write.getResource(FILE1));
+
+        write.commitBatch();
+        Assert.assertFalse(write.isInBatch());
+
+        Assert.assertEquals(getContent(write, FILE1), "batch1");
+        Assert.assertEquals(getContent(write, FILE2), "batch2");
+        Assert.assertEquals(getContent(write, FILE3), "batch3");
+    }
+
+    @Test(dependsOnMethods="commitBatch")
+    public void removeInBatch() throws IOException, RepositoryException {
+        write.beginBatch();
+        write.removeResource(FILE1);
+        write.pushResource(FILE2, new DummyContentResource("batch2a"));
+
+        // Still there before the commit
+        Assert.assertNotNull(write.getResource(FILE1));
+
+        write.commitBatch();
+
+        Assert.assertNull(write.getResource(FILE1));
+        Assert.assertNull(foundPath(write.getPaths(), FILE1));
+        Assert.assertEquals(getContent(write, FILE2), "batch2a");
+    }
+
+    @Test(dependsOnMethods="removeInBatch")
+    public void cancelBatch() throws IOException, RepositoryException {
+        write.beginBatch();
+        write.pushResource(FILE3, new DummyContentResource("batch3a"));
+        write.cancelBatch();
+
+        Assert.assertFalse(write.isInBatch());
+        Assert.assertEquals(getContent(write, FILE3), "batch3");
+    }
+
+    @Test(dependsOnMethods="cancelBatch")
+    public void failedBatch() throws IOException, RepositoryException {
+        write.beginBatch();
+        write.pushResource(FILE3, new DummyContentResource("batch3b"));
+        // A file below another file can't be written
+        write.pushResource(FILE2 + "/entry.xml", new DummyContentResource("entry"));
+        try {
+            write.commitBatch();
+            Assert.fail("The batch shouldn't be committed");
+        } catch (RepositoryException e) {
+            // expected
+        }
+
+        // None of the changes are applied
+        Assert.assertFalse(write.isInBatch());
+        Assert.assertEquals(getContent(write, FILE2), "batch2a");
+        Assert.assertEquals(getContent(write, FILE3), "batch3");
+    }
+
+    @Test(dependsOnMethods="failedBatch")
+    public void invalidPathInBatch() throws IOException, RepositoryException {
+        write.beginBatch();
+        try {
+            write.removeResource("../outside.xml");
+            Assert.fail("The path should be checked when staged");
+        } catch (RepositoryException e) {
+            // expected
+        } finally {
+            write.cancelBatch();
+        }
+    }
+
+    @Test(dependsOnMethods="invalidPathInBatch")
+    public void undoBatch() throws IOException, RepositoryException {
+        if (!repository.supportsHistory()) {
+            return;
+        }
+
+        write.pushResource(FILE1, new DummyContentResource("batch1b"));
+
+        write.beginBatch();
+        write.pushResource(FILE1, new DummyContentResource("batch1c"));
+        write.pushResource(FILE2, new DummyContentResource("batch2c"));
+        write.commitBatch();
+
+        // The whole batch is a single step
+        Assert.assertTrue(write.undo());
+        Assert.assertEquals(getContent(write, FILE1), "batch1b");
+        Assert.assertEquals(getContent(write, FILE2), "batch2a");
+
+        Assert.assertTrue(write.redo());
+        Assert.assertEquals(getContent(write, FILE1), "batch1c");
+        Assert.assertEquals(getContent(write, FILE2), "batch2c");
+    }
+
+    @Test(dependsOnMethods="undoBatch", expectedExceptions=RepositoryException.class)
+    public void commitWithoutBatch() throws RepositoryException {
+        write.commitBatch();
+    }
+
+    @Test(dependsOnMethods="commitWithoutBatch", expectedExceptions=RepositoryException.class)
+    public void beginTwice() throws RepositoryException {
+        write.beginBatch();
+        write.beginBatch();
+    }
+
+}
@@ -100,6 +100,18 @@ public class TestConfiguration {
             lists.add(new TestHistoryNotSupportedRepository(configuration.getRepository("nohistory")));
         }
 
+        // Batch of changes
+        lists.add(new TestBatchRepository(configuration.getRepository("batch")));
+
+        // Notifications of the changes
+        lists.add(new TestListenerRepository(configuration.getRepository("listener")));
+
+        // Listing of a part of the paths
+        lists.add(new TestListPathsRepository(configuration.getRepository("paths")));
+
+        // Archives of a version
+        lists.add(new TestArchiveRepository(configuration.getRepository("archive")));
+
 
         return lists.toArray(new Object[lists.size()]);
      }
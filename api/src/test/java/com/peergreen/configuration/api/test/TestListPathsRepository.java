@@ -0,0 +1,176 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.api.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.peergreen.configuration.api.ConfigRepository;
+import com.peergreen.configuration.api.Path;
+import com.peergreen.configuration.api.PathVisitor;
+import com.peergreen.configuration.api.Read;
+import com.peergreen.configuration.api.RepositoryException;
+import com.peergreen.configuration.api.Version;
+import com.peergreen.configuration.api.VersionedResource;
+import com.peergreen.configuration.api.Write;
+
+/**
+ * Check the listing and the walk of the paths of a version.
+ * @author Florent Benoit
+ */
+@Test
+public class TestListPathsRepository extends AbsTest {
+
+    private static final String[] PATHS = {"datasources/db1.xml", "datasources/db2.properties", "datasources/old/db0.xml",
+            "datasources2/db3.xml", "security/users.xml", "server.xml"};
+
+    private final ConfigRepository repository;
+
+    private Write write;
+
+    private Version version;
+
+    public TestListPathsRepository(ConfigRepository repository) {
+        this.repository = repository;
+    }
+
+    @Test
+    public void populate() throws RepositoryException {
+        this.write = repository.init();
+        write.beginBatch();
+        for (String path : PATHS) {
+            write.pushResource(path, new DummyContentResource(path));
+        }
+        write.commitBatch();
+        this.version = new DummyVersion(UUID.randomUUID().toString());
+        write.tag(version);
+    }
+
+    @Test(dependsOnMethods="populate")
+    public void listPrefix() throws RepositoryException {
+        checkPaths(write, "datasources", "datasources/db1.xml", "datasources/db2.properties", "datasources/old/db0.xml");
+        checkPaths(repository.read(version), "datasources/", "datasources/db1.xml", "datasources/db2.properties", "datasources/old/db0.xml");
+        checkPaths(repository.read(version), "server.xml", "server.xml");
+        checkPaths(repository.read(version), "unknown");
+    }
+
+    @Test(dependsOnMethods="populate")
+    public void listGlob() throws RepositoryException {
+        checkPaths(write, "datasources/*.xml", "datasources/db1.xml");
+        checkPaths(repository.read(version), "datasources/**/*.xml", "datasources/db1.xml", "datasources/old/db0.xml");
+        checkPaths(repository.read(version), "**/users.{xml,properties}", "security/users.xml");
+        checkPaths(repository.read(version), "*.xml", "server.xml");
+    }
+
+    @Test(dependsOnMethods="populate")
+    public void listRoot() throws RepositoryException {
+        for (Read read : new Read[] {write, repository.read(version)}) {
+            checkPaths(read, "", PATHS);
+            checkPaths(read, "/", PATHS);
+
+            final List<String> names = new ArrayList<String>();
+            Assert.assertTrue(read.walkPaths("", new PathVisitor() {
+                @Override
+                public boolean visit(Path path) {
+                    names.add(path.name());
+                    return true;
+                }
+            }));
+            Assert.assertEquals(names.size(), PATHS.length);
+        }
+    }
+
+    @Test(dependsOnMethods="populate", expectedExceptions=RepositoryException.class)
+    public void listOutside() throws RepositoryException {
+        write.getPaths("../datasources");
+    }
+
+    @Test(dependsOnMethods="populate")
+    public void walkPaths() throws RepositoryException {
+        for (Read read : new Read[] {write, repository.read(version)}) {
+            final List<String> names = new ArrayList<String>();
+            PathVisitor visitor = new PathVisitor() {
+                @Override
+                public boolean visit(Path path) {
+                    names.add(path.name());
+                    return true;
+                }
+            };
+            Assert.assertTrue(read.walkPaths(visitor));
+            Assert.assertEquals(names.size(), read.getPaths().size());
+
+            names.clear();
+            Assert.assertTrue(read.walkPaths("datasources/**/*.xml", visitor));
+            Assert.assertEquals(names.size(), 2);
+        }
+    }
+
+    @Test(dependsOnMethods="populate")
+    public void stopWalk() throws RepositoryException {
+        final int[] visited = new int[1];
+        boolean completed = repository.read(version).walkPaths(new PathVisitor() {
+            @Override
+            public boolean visit(Path path) {
+                visited[0]++;
+                return visited[0] < 2;
+            }
+        });
+        Assert.assertFalse(completed);
+        Assert.assertEquals(visited[0], 2);
+    }
+
+    @Test(dependsOnMethods="populate")
+    public void getResources() throws RepositoryException {
+        List<String> requested = Arrays.asList("server.xml", "datasources/old/db0.xml", "security/../datasources/db1.xml", "unknown.xml");
+        for (Read read : new Read[] {write, repository.read(version)}) {
+            Map<String, VersionedResource> resources = read.getResources(requested);
+            Assert.assertEquals(resources.size(), 3, "Resources: " + resources.keySet());
+            Assert.assertFalse(resources.containsKey("unknown.xml"));
+            for (String path : new String[] {"server.xml", "datasources/old/db0.xml"}) {
+                Assert.assertEquals(resources.get(path).getSize(), read.getResource(path).getSize());
+                Assert.assertEquals(resources.get(path).lastModified(), read.getResource(path).lastModified());
+            }
+            Assert.assertEquals(resources.get("security/../datasources/db1.xml").getSize(), read.getResource("datasources/db1.xml").getSize());
+        }
+    }
+
+    @Test(dependsOnMethods="populate", expectedExceptions=RepositoryException.class)
+    public void getResourcesOutside() throws RepositoryException {
+        repository.read(version).getResources(Arrays.asList("server.xml", "../outside.xml"));
+    }
+
+    protected void checkPaths(Read read, String filter, String... expected) throws RepositoryException {
+        Set<String> names = new HashSet<String>();
+        List<Path> paths = read.getPaths(filter);
+        for (Path path : paths) {
+            names.add(path.name());
+        }
+        Assert.assertEquals(paths.size(), expected.length, "Paths for '" + filter + "': " + names);
+        for (String name : expected) {
+            Assert.assertTrue(names.contains(name), "Missing '" + name + "' for '" + filter + "': " + names);
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.api.test;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.peergreen.configuration.api.ConfigRepository;
+import com.peergreen.configuration.api.PathChange;
+import com.peergreen.configuration.api.RepositoryException;
+import com.peergreen.configuration.api.RepositoryListener;
+import com.peergreen.configuration.api.Version;
+import com.peergreen.configuration.api.Write;
+
+/**
+ * Check that the listeners are notified of the new versions and of the production switches.
+ * @author Florent Benoit
+ */
+@Test
+public class TestListenerRepository extends AbsTest implements RepositoryListener {
+
+    private static final String FILE1 = "listener/file1.xml";
+    private static final String FILE2 = "listener/file2.xml";
+
+    /**
+     * Maximum time to wait for a notification sent by a background thread.
+     */
+    private static final long TIMEOUT = 10;
+
+    private final ConfigRepository repository;
+
+    private final BlockingQueue<Version> addedVersions = new LinkedBlockingQueue<Version>();
+
+    private final BlockingQueue<List<PathChange>> productionChanges = new LinkedBlockingQueue<List<PathChange>>();
+
+    private Version version1;
+
+    public TestListenerRepository(ConfigRepository repository) {
+        this.repository = repository;
+    }
+
+    @Override
+    public void versionAdded(Version version) {
+        addedVersions.add(version);
+    }
+
+    @Override
+    public void productionVersionChanged(Version oldVersion, Version newVersion, List<PathChange> changes) {
+        productionChanges.add(changes);
+    }
+
+    @Test
+    public void notifyNewVersion() throws RepositoryException, InterruptedException {
+        repository.addRepositoryListener(this);
+        Write write = repository.init();
+        write.pushResource(FILE1, new DummyContentResource("listener1"));
+        this.version1 = new DummyVersion(UUID.randomUUID().toString());
+        write.tag(version1);
+
+        Version added = addedVersions.poll(TIMEOUT, TimeUnit.SECONDS);
+        Assert.assertNotNull(added);
+        Assert.assertEquals(added.getName(), version1.getName());
+    }
+
+    @Test(dependsOnMethods="notifyNewVersion")
+    public void notifyProductionVersion() throws RepositoryException, InterruptedException {
+        repository.setProductionVersion(version1);
+        List<PathChange> changes = productionChanges.poll(TIMEOUT, TimeUnit.SECONDS);
+        Assert.assertNotNull(changes);
+        Assert.assertTrue(containsChange(changes, FILE1, PathChange.Type.ADDED));
+    }
+
+    @Test(dependsOnMethods="notifyProductionVersion")
+    public void notifyChangedPaths() throws RepositoryException, InterruptedException {
+        Write write = repository.init(version1);
+        write.pushResource(FILE1, new DummyContentResource("listener1 modified"));
+        write.pushResource(FILE2, new DummyContentResource("listener2"));
+        Version version2 = new DummyVersion(UUID.randomUUID().toString());
+        write.tag(version2);
+        Assert.assertNotNull(addedVersions.poll(TIMEOUT, TimeUnit.SECONDS));
+
+        repository.setProductionVersion(version2);
+        List<PathChange> changes = productionChanges.poll(TIMEOUT, TimeUnit.SECONDS);
+        Assert.assertNotNull(changes);
+        Assert.assertTrue(containsChange(changes, FILE1, PathChange.Type.MODIFIED));
+        Assert.assertTrue(containsChange(changes, FILE2, PathChange.Type.ADDED));
+    }
+
+    @Test(dependsOnMethods="notifyChangedPaths")
+    public void removeListener() throws RepositoryException, InterruptedException {
+        repository.removeRepositoryListener(this);
+        repository.setProductionVersion(version1);
+        Assert.assertNull(productionChanges.poll(1, TimeUnit.SECONDS));
+    }
+
+    protected boolean containsChange(List<PathChange> changes, String path, PathChange.Type type) {
+        for (PathChange change : changes) {
+            if (change.getPath().equals(path) && change.getType() == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -182,5 +182,31 @@ public class TestPopulateRepository extends AbsTest {
         Assert.fail("Shouldn't be able to read upper level, resource = " + resource);
     }
 
+    @Test(dependsOnMethods="checkGetRelativePathNotAuthorized", expectedExceptions=RepositoryException.class)
+    public void checkNestedRelativePathNotAuthorized() throws RepositoryException {
+        write.pushResource("entry/../../before-content.xml", new DummyContentResource("content"));
+        Assert.fail("shouldn't be able to write in super directories");
+    }
+
+    @Test
+    public void checkEntryWithDotSegments() throws IOException, RepositoryException {
+        write.pushResource("./entry//with/./dots/../dot-segments.xml", new DummyContentResource("content with dot segments"));
+        Assert.assertEquals(getContent(write, "entry/with/dot-segments.xml"), "content with dot segments");
+        Assert.assertNotNull(foundPath(write.getPaths(), "entry/with/dot-segments.xml"));
+    }
+
+    @Test(expectedExceptions=RepositoryException.class)
+    public void checkFileOverDirectoryNotAuthorized() throws IOException, RepositoryException {
+        checkEntry(write, "conflict/directory/entry.xml");
+        write.pushResource("conflict/directory", new DummyContentResource("content"));
+        Assert.fail("shouldn't be able to write a file with the path of a directory");
+    }
+
+    @Test(expectedExceptions=RepositoryException.class)
+    public void checkDirectoryOverFileNotAuthorized() throws IOException, RepositoryException {
+        checkEntry(write, "conflict/file.xml");
+        write.pushResource("conflict/file.xml/entry.xml", new DummyContentResource("content"));
+        Assert.fail("shouldn't be able to write a file below another file");
+    }
 
 }
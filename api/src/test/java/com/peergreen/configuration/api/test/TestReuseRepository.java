@@ -24,6 +24,8 @@ import org.testng.Assert;
 import org.testng.annotations.Test;
 
 import com.peergreen.configuration.api.ConfigRepository;
+import com.peergreen.configuration.api.Path;
+import com.peergreen.configuration.api.PathChange;
 import com.peergreen.configuration.api.RepositoryException;
 import com.peergreen.configuration.api.Version;
 import com.peergreen.configuration.api.Write;
@@ -41,6 +43,8 @@ public class TestReuseRepository extends AbsTest {
 
     private Write writeView = null;
 
+    private Version tagVersion = null;
+
     public TestReuseRepository(ConfigRepository repository) {
         this.repository = repository;
     }
@@ -62,6 +66,18 @@ public class TestReuseRepository extends AbsTest {
     }
 
     @Test(dependsOnMethods="checkoutSpecificVersion")
+    public void readBaseEntries() throws RepositoryException {
+        // The working copy starts with the content of the version
+        List<Path> versionPaths = repository.read(checkoutVersion).getPaths();
+        List<Path> writePaths = writeView.getPaths();
+        Assert.assertEquals(writePaths.size(), versionPaths.size());
+        for (Path path : versionPaths) {
+            Assert.assertNotNull(foundPath(writePaths, path.name()));
+            Assert.assertNotNull(writeView.getResource(path.name()));
+        }
+    }
+
+    @Test(dependsOnMethods="readBaseEntries")
     public void addAlreadyExistingEntries() throws IOException, RepositoryException {
         checkEntry(writeView, "test-entry.xml");
         checkEntry(writeView, "test-entry2.xml");
@@ -79,7 +95,7 @@ public class TestReuseRepository extends AbsTest {
     @Test(dependsOnMethods="addNewEntries")
     public void addTags() throws IOException, RepositoryException {
         // Tag a version
-        Version tagVersion = new DummyVersion(UUID.randomUUID().toString());
+        this.tagVersion = new DummyVersion(UUID.randomUUID().toString());
         writeView.tag(tagVersion);
 
         // start from the first version
@@ -92,6 +108,94 @@ public class TestReuseRepository extends AbsTest {
 
     }
 
+    @Test(dependsOnMethods="addTags")
+    public void removeBaseEntry() throws RepositoryException {
+        Write removeView = repository.init(checkoutVersion);
+        String path = removeView.getPaths().get(0).name();
+        removeView.removeResource(path);
+        Assert.assertNull(removeView.getResource(path));
+        Assert.assertNull(foundPath(removeView.getPaths(), path));
+
+        // Removal is kept in the tagged version, not in the initial one
+        Version removeVersion = new DummyVersion(UUID.randomUUID().toString());
+        removeView.tag(removeVersion);
+        Assert.assertNull(repository.read(removeVersion).getResource(path));
+        Assert.assertNotNull(repository.read(checkoutVersion).getResource(path));
+
+        // Only the removal is found between the versions
+        List<PathChange> changes = repository.diff(checkoutVersion, removeVersion);
+        Assert.assertEquals(changes.size(), 1);
+        Assert.assertEquals(changes.get(0).getPath(), path);
+        Assert.assertEquals(changes.get(0).getType(), PathChange.Type.REMOVED);
+    }
+
+    @Test(dependsOnMethods="addTags")
+    public void conflictsWithBaseEntries() throws IOException, RepositoryException {
+        Write baseView = repository.init(checkoutVersion);
+        checkEntry(baseView, "base-conflict/directory/entry.xml");
+        checkEntry(baseView, "base-conflict/file.xml", "file");
+        Version baseVersion = new DummyVersion(UUID.randomUUID().toString());
+        baseView.tag(baseVersion);
+
+        // The paths of the base version can't be replaced by a file or a directory
+        Write conflictView = repository.init(baseVersion);
+        try {
+            conflictView.pushResource("base-conflict/directory", new DummyContentResource("content"));
+            Assert.fail("shouldn't be able to write a file with the path of a directory of the base version");
+        } catch (RepositoryException e) {
+            // expected
+        }
+        try {
+            conflictView.pushResource("base-conflict/file.xml/entry.xml", new DummyContentResource("content"));
+            Assert.fail("shouldn't be able to write a file below a file of the base version");
+        } catch (RepositoryException e) {
+            // expected
+        }
+        Assert.assertEquals(getContent(conflictView, "base-conflict/file.xml"), "file");
+        Assert.assertNotNull(conflictView.getResource("base-conflict/directory/entry.xml"));
+
+        // Once removed, they can be replaced
+        conflictView.removeResource("base-conflict/directory/entry.xml");
+        conflictView.removeResource("base-conflict/file.xml");
+        checkEntry(conflictView, "base-conflict/directory");
+        checkEntry(conflictView, "base-conflict/file.xml/entry.xml");
+        Assert.assertNull(conflictView.getResource("base-conflict/file.xml"));
+        Version replacedVersion = new DummyVersion(UUID.randomUUID().toString());
+        conflictView.tag(replacedVersion);
+
+        List<Path> paths = repository.read(replacedVersion).getPaths("base-conflict");
+        Assert.assertEquals(paths.size(), 2);
+        Assert.assertNotNull(foundPath(paths, "base-conflict/directory"));
+        Assert.assertNotNull(foundPath(paths, "base-conflict/file.xml/entry.xml"));
+    }
+
+    @Test(dependsOnMethods="addTags")
+    public void diffVersions() throws RepositoryException {
+        Assert.assertTrue(repository.diff(tagVersion, tagVersion).isEmpty());
+
+        // Entries have been pushed with a new content
+        List<PathChange> changes = repository.diff(checkoutVersion, tagVersion);
+        Assert.assertEquals(findChange(changes, "test-entry.xml").getType(), PathChange.Type.MODIFIED);
+        Assert.assertNotEquals(findChange(changes, "test-entry3.xml").getType(), PathChange.Type.REMOVED);
+
+        // Everything is added since the empty content
+        List<PathChange> allChanges = repository.diff(null, tagVersion);
+        Assert.assertEquals(allChanges.size(), repository.read(tagVersion).getPaths().size());
+        for (PathChange change : allChanges) {
+            Assert.assertEquals(change.getType(), PathChange.Type.ADDED);
+        }
+    }
+
+    protected PathChange findChange(List<PathChange> changes, String path) {
+        for (PathChange change : changes) {
+            if (change.getPath().equals(path)) {
+                return change;
+            }
+        }
+        Assert.fail("No change found for the path '" + path + "'");
+        return null;
+    }
+
 
 
 }
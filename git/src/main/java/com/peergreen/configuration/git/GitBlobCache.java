@@ -0,0 +1,306 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.git;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Cache of the content of small blobs, keyed by blob id.
+ * A blob id is the hash of its content so an entry never needs to be invalidated.
+ * Blobs evicted from the heap may be kept in an optional tier of direct buffers.
+ * @author Florent Benoit
+ */
+public class GitBlobCache {
+
+    /**
+     * Default budget of the heap tier.
+     */
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+    /**
+     * Default size above which a blob is never cached.
+     */
+    public static final int DEFAULT_MAX_BLOB_SIZE = 256 * 1024;
+
+    private final Repository repository;
+
+    private final long maxBytes;
+
+    private final int maxBlobSize;
+
+    /**
+     * Budget of the direct buffers tier, disabled if 0.
+     */
+    private long maxOffHeapBytes = 0;
+
+    private final LinkedHashMap<ObjectId, byte[]> heap;
+
+    private final LinkedHashMap<ObjectId, ByteBuffer> offHeap;
+
+    private long heapBytes = 0;
+
+    private long offHeapBytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    public GitBlobCache(Repository repository) {
+        this(repository, DEFAULT_MAX_BYTES, DEFAULT_MAX_BLOB_SIZE);
+    }
+
+    public GitBlobCache(Repository repository, long maxBytes, int maxBlobSize) {
+        this.repository = repository;
+        this.maxBytes = maxBytes;
+        this.maxBlobSize = maxBlobSize;
+        this.heap = new LinkedHashMap<ObjectId, byte[]>(16, 0.75f, true);
+        this.offHeap = new LinkedHashMap<ObjectId, ByteBuffer>(16, 0.75f, true);
+    }
+
+    /**
+     * Opens the content of a blob. Small blobs are served from the cache, large blobs are streamed from the repository.
+     * @param blobId the id of the blob
+     * @return a stream on the content
+     * @throws IOException if the blob can't be read
+     */
+    public InputStream openStream(ObjectId blobId) throws IOException {
+        Content content = load(blobId);
+        if (content.buffer != null) {
+            return new ByteBufferInputStream(content.buffer);
+        }
+        return content.loader.openStream();
+    }
+
+    /**
+     * Opens a channel on the content of a blob. Small blobs are served from the cache, large blobs are streamed from the repository.
+     * @param blobId the id of the blob
+     * @return a channel on the content
+     * @throws IOException if the blob can't be read
+     */
+    public ReadableByteChannel openChannel(ObjectId blobId) throws IOException {
+        Content content = load(blobId);
+        if (content.buffer != null) {
+            return new ByteBufferChannel(content.buffer);
+        }
+        return Channels.newChannel(content.loader.openStream());
+    }
+
+    /**
+     * Writes the content of a blob to a channel. Cached blobs are written from their buffer without any copy.
+     * @param blobId the id of the blob
+     * @param target the channel to write to, it is not closed
+     * @return the number of bytes written
+     * @throws IOException if the blob can't be read or written
+     */
+    public long transferTo(ObjectId blobId, WritableByteChannel target) throws IOException {
+        Content content = load(blobId);
+        if (content.buffer != null) {
+            ByteBuffer buffer = content.buffer;
+            long written = buffer.remaining();
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            return written;
+        }
+        content.loader.copyTo(Channels.newOutputStream(target));
+        return content.loader.getSize();
+    }
+
+    /**
+     * Gets the whole content of a blob. Large blobs are read in a direct buffer that is not kept in the cache.
+     * @param blobId the id of the blob
+     * @return a read-only view on the content
+     * @throws IOException if the blob can't be read
+     */
+    public ByteBuffer getBuffer(ObjectId blobId) throws IOException {
+        Content content = load(blobId);
+        if (content.buffer != null) {
+            return content.buffer;
+        }
+        ObjectLoader objectLoader = content.loader;
+        if (objectLoader.getSize() > Integer.MAX_VALUE) {
+            throw new IOException("The blob '" + blobId.name() + "' is too large to fit in a buffer");
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) objectLoader.getSize());
+        ReadableByteChannel channel = Channels.newChannel(objectLoader.openStream());
+        try {
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                continue;
+            }
+        } finally {
+            channel.close();
+        }
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Gets the content of a blob from the cache, loading it in the cache if it is small enough.
+     * The blob is opened only once: blobs too large to be cached are streamed from the same loader and they are
+     * not counted as misses.
+     * @param blobId the id of the blob
+     * @return the cached content or the loader of a blob too large to be cached
+     * @throws IOException if the blob can't be read
+     */
+    protected Content load(ObjectId blobId) throws IOException {
+        ByteBuffer cached = get(blobId);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return new Content(cached, null);
+        }
+
+        ObjectLoader objectLoader = repository.open(blobId, Constants.OBJ_BLOB);
+        if (objectLoader.isLarge() || objectLoader.getSize() > maxBlobSize) {
+            return new Content(null, objectLoader);
+        }
+        misses.incrementAndGet();
+
+        // The loader may return its own array, it is never modified once in the cache
+        byte[] bytes = objectLoader.getCachedBytes();
+        put(blobId.copy(), bytes);
+        return new Content(ByteBuffer.wrap(bytes).asReadOnlyBuffer(), null);
+    }
+
+    /**
+     * @param blobId the id of the blob
+     * @return a read-only view on the cached content or null if the blob is not in the cache
+     */
+    public synchronized ByteBuffer get(ObjectId blobId) {
+        byte[] bytes = heap.get(blobId);
+        if (bytes != null) {
+            return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        }
+        ByteBuffer buffer = offHeap.get(blobId);
+        if (buffer != null) {
+            return buffer.asReadOnlyBuffer();
+        }
+        return null;
+    }
+
+    protected synchronized void put(ObjectId blobId, byte[] bytes) {
+        if (bytes.length > maxBytes || heap.containsKey(blobId)) {
+            return;
+        }
+        heap.put(blobId, bytes);
+        heapBytes += bytes.length;
+
+        // Evict the least recently used blobs, moving them to the direct buffers if enabled
+        Iterator<Map.Entry<ObjectId, byte[]>> iterator = heap.entrySet().iterator();
+        while (heapBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<ObjectId, byte[]> eldest = iterator.next();
+            heapBytes -= eldest.getValue().length;
+            iterator.remove();
+            putOffHeap(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    protected void putOffHeap(ObjectId blobId, byte[] bytes) {
+        if (bytes.length > maxOffHeapBytes || offHeap.containsKey(blobId)) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        offHeap.put(blobId, buffer);
+        offHeapBytes += bytes.length;
+        evictOffHeap();
+    }
+
+    protected void evictOffHeap() {
+        Iterator<ByteBuffer> iterator = offHeap.values().iterator();
+        while (offHeapBytes > maxOffHeapBytes && iterator.hasNext()) {
+            offHeapBytes -= iterator.next().capacity();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Enables the tier of direct buffers.
+     * @param maxOffHeapBytes the budget of the direct buffers, 0 to disable the tier
+     */
+    public synchronized void setMaxOffHeapBytes(long maxOffHeapBytes) {
+        this.maxOffHeapBytes = maxOffHeapBytes;
+        evictOffHeap();
+    }
+
+    public synchronized long getMaxOffHeapBytes() {
+        return maxOffHeapBytes;
+    }
+
+    public synchronized void clear() {
+        heap.clear();
+        offHeap.clear();
+        heapBytes = 0;
+        offHeapBytes = 0;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public synchronized long getHeapBytes() {
+        return heapBytes;
+    }
+
+    public synchronized long getOffHeapBytes() {
+        return offHeapBytes;
+    }
+
+    public int getMaxBlobSize() {
+        return maxBlobSize;
+    }
+
+    /**
+     * Content of a blob, either served from the cache or read from the repository.
+     */
+    protected static class Content {
+
+        /**
+         * Read-only view on the cached content, null for a blob too large to be cached.
+         */
+        private final ByteBuffer buffer;
+
+        /**
+         * Loader of a blob too large to be cached, null if the content is cached.
+         */
+        private final ObjectLoader loader;
+
+        public Content(ByteBuffer buffer, ObjectLoader loader) {
+            this.buffer = buffer;
+            this.loader = loader;
+        }
+    }
+
+}
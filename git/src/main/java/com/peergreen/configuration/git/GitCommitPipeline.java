@@ -0,0 +1,227 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.git;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+import com.peergreen.configuration.api.RepositoryException;
+
+/**
+ * Groups in commits the changes submitted concurrently on a single target, e.g. a write session.
+ * There is no committer thread: each change is queued by its calling thread, then the first caller getting the lock
+ * commits all the queued changes (up to a maximum number) in a single commit, on its own thread. The other callers
+ * find their change already committed once they get the lock, or commit the next group.
+ * Each target has its own pipeline, so commits on different targets are done in parallel.
+ * @author Florent Benoit
+ */
+public class GitCommitPipeline {
+
+    /**
+     * Default maximum number of changes in a commit.
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+    /**
+     * Default time waited by the committing thread for other changes: only the changes queued while the previous
+     * commit was done are grouped.
+     */
+    public static final long DEFAULT_WINDOW = 0L;
+
+    private final Target target;
+
+    private final int maxBatchSize;
+
+    private final long window;
+
+    private final Queue<Change> queue = new ConcurrentLinkedQueue<Change>();
+
+    /**
+     * Held by the thread committing a group of changes.
+     */
+    private final Object commitLock = new Object();
+
+    public GitCommitPipeline(Target target) {
+        this(target, DEFAULT_MAX_BATCH_SIZE, DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param target the target on which the changes are committed
+     * @param maxBatchSize the maximum number of changes in a commit
+     * @param window the time in milliseconds waited for other changes before committing a group
+     */
+    public GitCommitPipeline(Target target, int maxBatchSize, long window) {
+        this.target = target;
+        this.maxBatchSize = maxBatchSize;
+        this.window = window;
+    }
+
+    /**
+     * Commits the given changes, grouped with the changes submitted concurrently.
+     * Returns once the target has been moved to a commit containing them.
+     * @param changes the new entry for each changed path, a null entry removes the path
+     * @param message the message of the commit if the changes are not grouped
+     * @return the id of the commit containing the changes
+     * @throws RepositoryException if the changes can't be committed
+     */
+    public ObjectId commit(Map<String, GitTreeIndex.Entry> changes, String message) throws RepositoryException {
+        Change change = new Change(changes, message);
+        queue.add(change);
+        synchronized (commitLock) {
+            if (!change.done && window > 0) {
+                waitWindow();
+            }
+            // Committed with the group of a previous thread, otherwise this thread commits the queued changes
+            while (!change.done) {
+                commit(poll());
+            }
+        }
+        if (change.exception != null) {
+            throw change.exception;
+        }
+        return change.commitId;
+    }
+
+    /**
+     * Waits for other changes before committing, the lock is kept so the waiting callers queue their changes.
+     */
+    protected void waitWindow() {
+        try {
+            Thread.sleep(window);
+        } catch (InterruptedException e) {
+            // Commit what has been queued
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the next group of queued changes, in submission order
+     */
+    protected List<Change> poll() {
+        List<Change> changes = new ArrayList<Change>();
+        Change change = queue.poll();
+        while (change != null) {
+            changes.add(change);
+            if (changes.size() >= maxBatchSize) {
+                break;
+            }
+            change = queue.poll();
+        }
+        return changes;
+    }
+
+    /**
+     * Commits the given changes in a single commit and completes them.
+     * If the group can't be committed, each of its changes is committed on its own so that only the failing ones fail.
+     */
+    protected void commit(List<Change> changes) {
+        try {
+            complete(changes);
+        } catch (RepositoryException e) {
+            if (changes.size() == 1) {
+                changes.get(0).complete(null, e);
+                return;
+            }
+            for (Change change : changes) {
+                try {
+                    complete(Collections.singletonList(change));
+                } catch (RepositoryException changeException) {
+                    change.complete(null, changeException);
+                }
+            }
+        }
+    }
+
+    /**
+     * Commits the given changes on the target in a single commit and completes them.
+     * @throws RepositoryException if the changes can't be committed
+     */
+    protected void complete(List<Change> changes) throws RepositoryException {
+        String message = changes.get(0).message;
+        Map<String, GitTreeIndex.Entry> treeChanges = changes.get(0).changes;
+        if (changes.size() > 1) {
+            message = "Group of " + changes.size() + " changes.";
+            treeChanges = new LinkedHashMap<String, GitTreeIndex.Entry>();
+            for (Change change : changes) {
+                treeChanges.putAll(change.changes);
+            }
+        }
+        ObjectId commitId;
+        try {
+            commitId = target.commit(treeChanges, message);
+        } catch (RuntimeException e) {
+            // The waiting callers have to be completed
+            throw new RepositoryException("Unable to commit the changes", e);
+        }
+        for (Change change : changes) {
+            change.complete(commitId, null);
+        }
+    }
+
+    /**
+     * Session on which grouped changes are committed.
+     */
+    public interface Target {
+
+        /**
+         * Commits the given changes in a single commit.
+         * @param changes the new entry for each changed path, a null entry removes the path
+         * @param message the message of the commit
+         * @return the id of the commit containing the changes
+         * @throws RepositoryException if the changes can't be committed
+         */
+        ObjectId commit(Map<String, GitTreeIndex.Entry> changes, String message) throws RepositoryException;
+    }
+
+    /**
+     * Changes waiting to be committed, completed under the commit lock.
+     */
+    protected static class Change {
+
+        /**
+         * New entry for each path, null for a removal.
+         */
+        private final Map<String, GitTreeIndex.Entry> changes;
+
+        private final String message;
+
+        private boolean done = false;
+
+        private ObjectId commitId;
+
+        private RepositoryException exception;
+
+        public Change(Map<String, GitTreeIndex.Entry> changes, String message) {
+            this.changes = changes;
+            this.message = message;
+        }
+
+        protected void complete(ObjectId commitId, RepositoryException exception) {
+            this.commitId = commitId;
+            this.exception = exception;
+            this.done = true;
+        }
+    }
+
+}
@@ -18,6 +18,15 @@ package com.peergreen.configuration.git;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jgit.api.CommitCommand;
 import org.eclipse.jgit.api.Git;
@@ -31,28 +40,105 @@ import com.peergreen.configuration.api.Configuration;
 import com.peergreen.configuration.api.RepositoryException;
 
 /**
- *
+ * Git implementation of the configuration.
+ * Each named repository is opened once and shared by all the callers, each caller gets its own access to close.
+ * A repository is closed once it has not been used by anyone during the idle timeout, so its caches (packs,
+ * references, trees, contents) stay warm in between.
+ * Opened repositories are periodically checked in background and packed when needed, on their own thread.
+ * Their references are also checked to notify the listeners of the changes made by other processes.
+ * The background threads are stopped and the repositories are closed by {@link #shutdown()}.
  * @author Florent Benoit
  */
 public class GitConfiguration implements Configuration {
 
+    /**
+     * Default time in milliseconds before closing a repository that is no longer used.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 60000L;
+
+    /**
+     * Default time in milliseconds between two checks of the repositories for a maintenance.
+     */
+    public static final long DEFAULT_MAINTENANCE_INTERVAL = 10L * 60L * 1000L;
+
+    /**
+     * Default time in milliseconds between two checks of the references changed by other processes.
+     */
+    public static final long DEFAULT_CHANGES_INTERVAL = 1000L;
+
     private File rootDirectory = null;
 
+    private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+    private long maintenanceInterval = DEFAULT_MAINTENANCE_INTERVAL;
+
+    private ScheduledFuture<?> maintenanceTask = null;
+
+    private long changesInterval = DEFAULT_CHANGES_INTERVAL;
+
+    private ScheduledFuture<?> changesTask = null;
+
+    /**
+     * Budget of the tier of direct buffers of each blob cache, 0 if the tier is disabled.
+     */
+    private volatile long blobCacheOffHeapBytes = 0;
+
+    /**
+     * Opened repositories by name.
+     */
+    private final Map<String, RepositoryHandle> repositories = new HashMap<String, RepositoryHandle>();
+
+    /**
+     * Runs the checks of the references and the idle closes.
+     */
+    private ScheduledExecutorService executor = null;
+
+    /**
+     * Runs the maintenance, a long pack doesn't delay the other tasks.
+     */
+    private ScheduledExecutorService maintenanceExecutor = null;
+
+    /**
+     * True once shut down, guarded by the repositories.
+     */
+    private boolean shutdown = false;
+
     @Override
     public ConfigRepository getRepository(String name) throws RepositoryException {
         check();
 
+        synchronized (repositories) {
+            if (shutdown) {
+                throw new RepositoryException("The configuration has been shut down");
+            }
+            RepositoryHandle handle = repositories.get(name);
+            if (handle == null) {
+                handle = new RepositoryHandle(new GitRepository(this, name, openRepository(name)));
+                handle.repository.getGitManager().blobCache().setMaxOffHeapBytes(blobCacheOffHeapBytes);
+                repositories.put(name, handle);
+                startMaintenance();
+                startChangesCheck();
+            }
+
+            // Used again, cancel the close
+            handle.references++;
+            if (handle.idleClose != null) {
+                handle.idleClose.cancel(false);
+                handle.idleClose = null;
+            }
+            return new GitRepositoryAccess(this, handle.repository);
+        }
+    }
+
+    protected FileRepository openRepository(String name) throws RepositoryException {
         // Sets the git directory from the given repository name
         File repositoryDir = new File(rootDirectory, name);
         File gitDir = new File(repositoryDir, Constants.DOT_GIT);
 
-        // Find the git directory
+        // The git directory is known, no need to search for it
         FileRepository fileRepository = null;
         try {
-            fileRepository = new FileRepositoryBuilder() //
-                    .setGitDir(gitDir) // --git-dir if supplied, no-op if null
-                    .readEnvironment() // scan environment GIT_* variables
-                    .findGitDir().build();
+            fileRepository = new FileRepositoryBuilder().setGitDir(gitDir).build();
         } catch (IOException e) {
             throw new RepositoryException("Unable to find a repository for the path '" + name + "'.", e);
         }
@@ -76,8 +162,286 @@ public class GitConfiguration implements Configuration {
 
         }
 
-        return new GitRepository(fileRepository);
+        return fileRepository;
+
+    }
+
+    /**
+     * Releases an access to the given repository. When it is no longer used, it will be closed after the idle timeout.
+     * Called once by each access.
+     * @param name the name of the repository
+     */
+    protected void release(final String name) {
+        synchronized (repositories) {
+            final RepositoryHandle handle = repositories.get(name);
+            if (handle == null || --handle.references > 0) {
+                return;
+            }
+            if (shutdown) {
+                return;
+            }
+            if (idleTimeout <= 0) {
+                repositories.remove(name);
+                handle.repository.dispose();
+                return;
+            }
+            handle.idleClose = getExecutor().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    closeIdle(name, handle);
+                }
+            }, idleTimeout, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Closes the given repository if it has not been used again.
+     */
+    protected void closeIdle(String name, RepositoryHandle handle) {
+        synchronized (repositories) {
+            if (repositories.get(name) != handle || handle.references > 0) {
+                return;
+            }
+            repositories.remove(name);
+        }
+        handle.repository.dispose();
+    }
+
+    /**
+     * Starts the periodic maintenance of the opened repositories if it is not yet started.
+     */
+    protected synchronized void startMaintenance() {
+        if (maintenanceTask != null || maintenanceInterval <= 0) {
+            return;
+        }
+        maintenanceTask = getMaintenanceExecutor().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                runMaintenance();
+            }
+        }, maintenanceInterval, maintenanceInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts the periodic check of the references of the opened repositories if it is not yet started.
+     */
+    protected synchronized void startChangesCheck() {
+        if (changesTask != null || changesInterval <= 0) {
+            return;
+        }
+        changesTask = getExecutor().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                checkChanges();
+            }
+        }, changesInterval, changesInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checks the references of all the opened repositories and notifies their listeners.
+     */
+    public void checkChanges() {
+        for (GitRepository repository : getOpenedRepositories()) {
+            try {
+                repository.checkChanges();
+            } catch (RepositoryException e) {
+                // Keep on with the other repositories, it will be tried again at the next run
+                continue;
+            }
+        }
+    }
+
+    /**
+     * Sets the time between two checks of the references changed by other processes.
+     * @param changesInterval the interval in milliseconds, 0 to only notify the changes made by this process
+     */
+    public void setChangesInterval(long changesInterval) {
+        // Same lock order as getRepository(): repositories, then this configuration
+        synchronized (repositories) {
+            synchronized (this) {
+                this.changesInterval = changesInterval;
+                if (changesTask != null) {
+                    changesTask.cancel(false);
+                    changesTask = null;
+                }
+                if (!repositories.isEmpty()) {
+                    startChangesCheck();
+                }
+            }
+        }
+    }
+
+    public long getChangesInterval() {
+        return changesInterval;
+    }
+
+    protected List<GitRepository> getOpenedRepositories() {
+        List<GitRepository> opened = new ArrayList<GitRepository>();
+        synchronized (repositories) {
+            for (RepositoryHandle handle : repositories.values()) {
+                opened.add(handle.repository);
+            }
+        }
+        return opened;
+    }
+
+    /**
+     * Runs the maintenance of all the opened repositories, they are packed only if they need it.
+     * @return the report of each repository, by name
+     */
+    public Map<String, GitMaintenanceReport> runMaintenance() {
+        Map<String, GitMaintenanceReport> reports = new HashMap<String, GitMaintenanceReport>();
+        for (GitRepository repository : getOpenedRepositories()) {
+            try {
+                reports.put(repository.getName(), repository.getMaintenance().run(false));
+            } catch (RepositoryException e) {
+                // Keep on with the other repositories, it will be tried again at the next run
+                continue;
+            }
+        }
+        return reports;
+    }
+
+    /**
+     * Sets the time between two checks of the repositories for a maintenance.
+     * @param maintenanceInterval the interval in milliseconds, 0 to disable the background maintenance
+     */
+    public void setMaintenanceInterval(long maintenanceInterval) {
+        // Same lock order as getRepository(): repositories, then this configuration
+        synchronized (repositories) {
+            synchronized (this) {
+                this.maintenanceInterval = maintenanceInterval;
+                if (maintenanceTask != null) {
+                    maintenanceTask.cancel(false);
+                    maintenanceTask = null;
+                }
+                if (!repositories.isEmpty()) {
+                    startMaintenance();
+                }
+            }
+        }
+    }
+
+    public long getMaintenanceInterval() {
+        return maintenanceInterval;
+    }
+
+    /**
+     * Enables the tier of direct buffers of the blob caches: contents evicted from the heap are kept there.
+     * @param blobCacheOffHeapBytes the budget of each repository in bytes, 0 to disable the tier
+     */
+    public void setBlobCacheOffHeapBytes(long blobCacheOffHeapBytes) {
+        this.blobCacheOffHeapBytes = blobCacheOffHeapBytes;
+        for (GitRepository repository : getOpenedRepositories()) {
+            repository.getGitManager().blobCache().setMaxOffHeapBytes(blobCacheOffHeapBytes);
+        }
+    }
+
+    public long getBlobCacheOffHeapBytes() {
+        return blobCacheOffHeapBytes;
+    }
+
+    /**
+     * @return the executor running the checks of the references and the idle closes
+     */
+    protected synchronized ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            executor = newExecutor("GitConfiguration-" + rootDirectory.getName());
+        }
+        return executor;
+    }
+
+    /**
+     * @return the executor running the maintenance
+     */
+    protected synchronized ScheduledExecutorService getMaintenanceExecutor() {
+        if (maintenanceExecutor == null) {
+            maintenanceExecutor = newExecutor("GitConfiguration-maintenance-" + rootDirectory.getName());
+        }
+        return maintenanceExecutor;
+    }
+
+    protected ScheduledExecutorService newExecutor(final String name) {
+        return Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Stops the background tasks and closes all the opened repositories, even if they are still used.
+     * A running maintenance is completed first. The configuration can't be used anymore.
+     */
+    public void shutdown() {
+        List<RepositoryHandle> handles;
+        ScheduledExecutorService stoppedExecutor;
+        ScheduledExecutorService stoppedMaintenanceExecutor;
+        // Same lock order as getRepository(): repositories, then this configuration
+        synchronized (repositories) {
+            synchronized (this) {
+                if (shutdown) {
+                    return;
+                }
+                shutdown = true;
+                if (maintenanceTask != null) {
+                    maintenanceTask.cancel(false);
+                    maintenanceTask = null;
+                }
+                if (changesTask != null) {
+                    changesTask.cancel(false);
+                    changesTask = null;
+                }
+                stoppedExecutor = executor;
+                stoppedMaintenanceExecutor = maintenanceExecutor;
+                executor = null;
+                maintenanceExecutor = null;
+            }
+            handles = new ArrayList<RepositoryHandle>(repositories.values());
+            repositories.clear();
+            for (RepositoryHandle handle : handles) {
+                if (handle.idleClose != null) {
+                    handle.idleClose.cancel(false);
+                }
+            }
+        }
+
+        // Packs are not interrupted, wait for the running one before closing the repositories
+        if (stoppedExecutor != null) {
+            stoppedExecutor.shutdown();
+        }
+        if (stoppedMaintenanceExecutor != null) {
+            stoppedMaintenanceExecutor.shutdown();
+            try {
+                stoppedMaintenanceExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (RepositoryHandle handle : handles) {
+            handle.repository.dispose();
+        }
+    }
+
+    public boolean isShutdown() {
+        synchronized (repositories) {
+            return shutdown;
+        }
+    }
+
+    /**
+     * Sets the time before closing a repository that is no longer used.
+     * @param idleTimeout the timeout in milliseconds, 0 to close it as soon as it is released
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
 
+    public long getIdleTimeout() {
+        return idleTimeout;
     }
 
     @Override
@@ -94,4 +458,20 @@ public class GitConfiguration implements Configuration {
         }
     }
 
+    /**
+     * Shared repository with the number of its users.
+     */
+    protected static class RepositoryHandle {
+
+        private final GitRepository repository;
+
+        private int references = 0;
+
+        private ScheduledFuture<?> idleClose = null;
+
+        public RepositoryHandle(GitRepository repository) {
+            this.repository = repository;
+        }
+    }
+
 }
@@ -0,0 +1,203 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.git;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import com.peergreen.configuration.api.RepositoryException;
+
+/**
+ * Maintenance of a git repository.
+ * Each change writes loose objects and abandoned sessions keep their commits, so the repository is packed
+ * (references packed, objects repacked and unreachable objects pruned) when its statistics cross the thresholds.
+ * A session is abandoned when it is no longer opened in this process and its head is older than the expiry.
+ * Readers are never blocked, they keep using the previous packs until the new ones are available.
+ * @author Florent Benoit
+ */
+public class GitMaintenance {
+
+    /**
+     * Default number of loose objects above which the repository is packed.
+     */
+    public static final long DEFAULT_LOOSE_OBJECTS_THRESHOLD = 6700L;
+
+    /**
+     * Default number of pack files above which the repository is packed.
+     */
+    public static final long DEFAULT_PACK_FILES_THRESHOLD = 50L;
+
+    /**
+     * Default time in milliseconds after which a session that is not opened and without changes is abandoned : 7 days.
+     */
+    public static final long DEFAULT_SESSION_EXPIRY = 7L * 24L * 60L * 60L * 1000L;
+
+    private final GitRepository repository;
+
+    private final GitManager gitManager;
+
+    private long looseObjectsThreshold = DEFAULT_LOOSE_OBJECTS_THRESHOLD;
+
+    private long packFilesThreshold = DEFAULT_PACK_FILES_THRESHOLD;
+
+    private long sessionExpiry = DEFAULT_SESSION_EXPIRY;
+
+    private volatile GitMaintenanceReport lastReport = null;
+
+    public GitMaintenance(GitRepository repository) {
+        this.repository = repository;
+        this.gitManager = repository.getGitManager();
+    }
+
+    /**
+     * @return the current statistics of the repository
+     */
+    public Properties getStatistics() throws RepositoryException {
+        try {
+            return gitManager.git().gc().getStatistics();
+        } catch (GitAPIException e) {
+            throw new RepositoryException("Unable to get the statistics of the repository", e);
+        }
+    }
+
+    /**
+     * @param statistics the statistics of the repository
+     * @return true if the repository needs to be packed
+     */
+    public boolean isNeeded(Properties statistics) {
+        return getStatistic(statistics, "numberOfLooseObjects") > looseObjectsThreshold
+                || getStatistic(statistics, "numberOfPackFiles") > packFilesThreshold;
+    }
+
+    protected long getStatistic(Properties statistics, String name) {
+        Object value = statistics.get(name);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value != null) {
+            return Long.parseLong(value.toString());
+        }
+        return 0L;
+    }
+
+    /**
+     * Expires the abandoned sessions then packs the repository if a threshold is crossed.
+     * @param force pack the repository even if no threshold is crossed
+     * @return the report of this maintenance
+     */
+    public synchronized GitMaintenanceReport run(boolean force) throws RepositoryException {
+        long start = System.currentTimeMillis();
+
+        // Abandoned sessions no longer keep their commits
+        int expiredSessions = expireSessions(start - sessionExpiry);
+
+        Properties before = getStatistics();
+        Properties after = null;
+        if (force || isNeeded(before)) {
+            try {
+                after = gitManager.git().gc().call();
+            } catch (GitAPIException e) {
+                throw new RepositoryException("Unable to pack the repository", e);
+            }
+        }
+
+        GitMaintenanceReport report = new GitMaintenanceReport(before, after, expiredSessions, System.currentTimeMillis() - start);
+        this.lastReport = report;
+        return report;
+    }
+
+    /**
+     * Deletes the references of the sessions without changes since the given time, the head and the redo ones.
+     * The sessions still opened on the repository are kept, whatever the time of their head.
+     * @param expiryTime time in milliseconds
+     * @return the number of deleted sessions
+     */
+    protected int expireSessions(long expiryTime) throws RepositoryException {
+        int expired = 0;
+        Set<String> openedSessionRefs = repository.getOpenedSessionRefs();
+        RevWalk revWalk = new RevWalk(gitManager.repository());
+        try {
+            Map<String, Ref> sessions = gitManager.repository().getRefDatabase().getRefs(GitWrite.R_SESSIONS);
+            for (Ref ref : sessions.values()) {
+                if (!ref.getName().endsWith("/" + GitWrite.SESSION_HEAD) || openedSessionRefs.contains(ref.getName())) {
+                    continue;
+                }
+                RevCommit head = revWalk.parseCommit(ref.getObjectId());
+                if (1000L * head.getCommitTime() >= expiryTime) {
+                    continue;
+                }
+                // Only delete it if the session didn't change in the meantime
+                RefUpdate refUpdate = gitManager.repository().updateRef(ref.getName());
+                refUpdate.setExpectedOldObjectId(ref.getObjectId());
+                refUpdate.setForceUpdate(true);
+                if (refUpdate.delete() == RefUpdate.Result.FORCED) {
+                    String session = ref.getName().substring(0, ref.getName().length() - GitWrite.SESSION_HEAD.length());
+                    gitManager.deleteRef(session + GitWrite.SESSION_REDO);
+                    expired++;
+                }
+            }
+        } catch (IOException e) {
+            throw new RepositoryException("Unable to expire the sessions", e);
+        } finally {
+            revWalk.dispose();
+        }
+        return expired;
+    }
+
+    /**
+     * @return the report of the last maintenance, null if there was none
+     */
+    public GitMaintenanceReport getLastReport() {
+        return lastReport;
+    }
+
+    public long getLooseObjectsThreshold() {
+        return looseObjectsThreshold;
+    }
+
+    public void setLooseObjectsThreshold(long looseObjectsThreshold) {
+        this.looseObjectsThreshold = looseObjectsThreshold;
+    }
+
+    public long getPackFilesThreshold() {
+        return packFilesThreshold;
+    }
+
+    public void setPackFilesThreshold(long packFilesThreshold) {
+        this.packFilesThreshold = packFilesThreshold;
+    }
+
+    public long getSessionExpiry() {
+        return sessionExpiry;
+    }
+
+    /**
+     * @param sessionExpiry time in milliseconds after which a session that is not opened and without changes is abandoned
+     */
+    public void setSessionExpiry(long sessionExpiry) {
+        this.sessionExpiry = sessionExpiry;
+    }
+
+}
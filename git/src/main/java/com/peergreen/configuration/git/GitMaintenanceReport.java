@@ -0,0 +1,77 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.git;
+
+import java.util.Properties;
+
+/**
+ * Result of a maintenance of a git repository, with the statistics of the repository before and after.
+ * @author Florent Benoit
+ */
+public class GitMaintenanceReport {
+
+    private final Properties before;
+
+    private final Properties after;
+
+    private final int expiredSessions;
+
+    private final long duration;
+
+    public GitMaintenanceReport(Properties before, Properties after, int expiredSessions, long duration) {
+        this.before = before;
+        this.after = after;
+        this.expiredSessions = expiredSessions;
+        this.duration = duration;
+    }
+
+    /**
+     * @return statistics before the maintenance (numberOfLooseObjects, numberOfPackFiles, sizeOfLooseObjects, ...)
+     */
+    public Properties getBefore() {
+        return before;
+    }
+
+    /**
+     * @return statistics after the maintenance, null if the repository has not been packed
+     */
+    public Properties getAfter() {
+        return after;
+    }
+
+    public boolean isPacked() {
+        return after != null;
+    }
+
+    public int getExpiredSessions() {
+        return expiredSessions;
+    }
+
+    /**
+     * @return duration of the maintenance in milliseconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    @Override
+    public String toString() {
+        return "GitMaintenanceReport[before=" + before + ", after=" + after + ", expiredSessions=" + expiredSessions
+                + ", duration=" + duration + "ms]";
+    }
+
+}
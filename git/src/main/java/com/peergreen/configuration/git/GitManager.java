@@ -16,18 +16,46 @@
 
 package com.peergreen.configuration.git;
 
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEditor.DeletePath;
+import org.eclipse.jgit.dircache.DirCacheEditor.PathEdit;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.CommitBuilder;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 
+import com.peergreen.configuration.api.PathChange;
+import com.peergreen.configuration.api.PathNormalizer;
 import com.peergreen.configuration.api.RepositoryException;
+import com.peergreen.configuration.api.Resource;
 import com.peergreen.configuration.api.Version;
+import com.peergreen.configuration.api.VersionedResource;
 
 /**
  *
@@ -35,13 +63,39 @@ import com.peergreen.configuration.api.Version;
  */
 public class GitManager {
 
+    /**
+     * Name of the committer of all the changes.
+     */
+    private static final String COMMITTER_NAME = "Peergreen Config Repository";
+
+    /**
+     * Email of the committer of all the changes.
+     */
+    private static final String COMMITTER_EMAIL = "configrepository@peergreen.com";
+
+    /**
+     * Number of attempts to move a reference that is concurrently updated.
+     */
+    static final int REF_UPDATE_ATTEMPTS = 10;
+
+    /**
+     * Size of the buffer.
+     */
+    private static final int BUFFER_SIZE = 4096;
+
     private final Git git;
 
     private final Repository repository;
 
+    private final GitTreeIndexCache treeIndexCache;
+
+    private final GitBlobCache blobCache;
+
     public GitManager(Repository repository) {
         this.repository = repository;
         this.git = new Git(repository);
+        this.treeIndexCache = new GitTreeIndexCache(repository);
+        this.blobCache = new GitBlobCache(repository);
     }
 
     public Repository repository() {
@@ -52,6 +106,28 @@ public class GitManager {
         return git;
     }
 
+    public GitTreeIndexCache treeIndexCache() {
+        return treeIndexCache;
+    }
+
+    public GitBlobCache blobCache() {
+        return blobCache;
+    }
+
+    /**
+     * Gets the index of the tree of the given commit, shared by all the views on this commit.
+     * @param commitId the id of the commit
+     * @return the index of its tree
+     * @throws RepositoryException if the tree can't be read
+     */
+    public GitTreeIndex getTreeIndex(ObjectId commitId) throws RepositoryException {
+        try {
+            return treeIndexCache.get(commitId);
+        } catch (IOException e) {
+            throw new RepositoryException("Cannot get the tree for the commit '" + commitId + "'", e);
+        }
+    }
+
     public boolean existRef(String refName) throws RepositoryException {
         Ref checkRef = null;
         try {
@@ -81,6 +157,10 @@ public class GitManager {
             throw new RepositoryException("Cannot get revision for the given version '" + version.getName() + "'", e);
         }
         if (ref != null) {
+            // Annotated tags are resolved to their commit
+            if (!ref.isPeeled()) {
+                ref = repository.peel(ref);
+            }
             ObjectId id = ref.getPeeledObjectId();
             if (id == null) {
                 id = ref.getObjectId();
@@ -108,4 +188,391 @@ public class GitManager {
 
     }
 
+    /**
+     * Checks that the given path stays inside the repository and gets its name in the git trees.
+     * @param path the path of the resource
+     * @return the normalized path, using '/' as separator
+     * @throws RepositoryException if the path is outside of the repository
+     */
+    public String checkAndGetGitPath(String path) throws RepositoryException {
+        // Git trees are not bound to the work tree, the path is checked lexically
+        return PathNormalizer.normalize(path);
+    }
+
+    /**
+     * Inserts the content of a resource as a blob in the object database.
+     * @param resource the resource to insert
+     * @return the entry to add in a tree for this blob
+     * @throws RepositoryException if the blob can't be inserted
+     */
+    public GitTreeIndex.Entry insertBlob(Resource resource) throws RepositoryException {
+        InputStream inputStream = resource.openStream();
+        ObjectInserter objectInserter = repository.newObjectInserter();
+        try {
+            long size = -1;
+            if (resource instanceof VersionedResource) {
+                size = ((VersionedResource) resource).getSize();
+            }
+            GitTreeIndex.Entry entry = insertBlob(objectInserter, size, inputStream);
+            objectInserter.flush();
+            return entry;
+        } catch (IOException e) {
+            throw new RepositoryException("Cannot insert the content of the resource", e);
+        } finally {
+            objectInserter.release();
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                throw new RepositoryException("Cannot close the stream of the resource", e);
+            }
+        }
+    }
+
+    /**
+     * Inserts the files of a zip archive as blobs in the object database, they are flushed once at the end.
+     * @param inputStream the stream of the archive, it is not closed
+     * @return the entry to add in a tree for each path of the archive
+     * @throws RepositoryException if the archive can't be read or if one of its paths is outside of the repository
+     */
+    public Map<String, GitTreeIndex.Entry> insertArchive(InputStream inputStream) throws RepositoryException {
+        Map<String, GitTreeIndex.Entry> entries = new LinkedHashMap<String, GitTreeIndex.Entry>();
+        ZipInputStream zipInputStream = new ZipInputStream(inputStream);
+        ObjectInserter objectInserter = repository.newObjectInserter();
+        try {
+            ZipEntry zipEntry = zipInputStream.getNextEntry();
+            while (zipEntry != null) {
+                if (!zipEntry.isDirectory()) {
+                    String gitPath = checkAndGetGitPath(zipEntry.getName());
+                    entries.put(gitPath, insertBlob(objectInserter, zipEntry.getSize(), zipInputStream));
+                }
+                zipEntry = zipInputStream.getNextEntry();
+            }
+            objectInserter.flush();
+        } catch (IOException e) {
+            throw new RepositoryException("Cannot insert the content of the archive", e);
+        } finally {
+            objectInserter.release();
+        }
+        return entries;
+    }
+
+    protected byte[] readContent(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int n = inputStream.read(buffer);
+        while (n != -1) {
+            out.write(buffer, 0, n);
+            n = inputStream.read(buffer);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Inserts a blob, streaming its content if its size is known.
+     * @param objectInserter the inserter to use, it is not flushed
+     * @param size the expected size of the content, -1 if it is unknown
+     * @param inputStream the content, it is not closed
+     * @return the entry to add in a tree for this blob
+     * @throws IOException if the content can't be read or if its size is not the expected one
+     */
+    protected GitTreeIndex.Entry insertBlob(ObjectInserter objectInserter, long size, InputStream inputStream) throws IOException {
+        ObjectId blobId;
+        if (size != -1) {
+            // Size is known, stream the content. The inserter may read less or more than the declared size
+            CountingInputStream countingInputStream = new CountingInputStream(inputStream);
+            blobId = objectInserter.insert(Constants.OBJ_BLOB, size, countingInputStream);
+            if (countingInputStream.getCount() != size || countingInputStream.read() != -1) {
+                throw new IOException("The size of the content is not its declared size of " + size + " bytes");
+            }
+        } else {
+            byte[] content = readContent(inputStream);
+            size = content.length;
+            blobId = objectInserter.insert(Constants.OBJ_BLOB, content);
+        }
+        return new GitTreeIndex.Entry(blobId, FileMode.REGULAR_FILE, size);
+    }
+
+    /**
+     * Creates a new commit on top of the given one, without any working tree.
+     * The tree of the parent is edited in memory and only the new trees and the commit are inserted.
+     * @param parentId the commit on which the changes are applied
+     * @param changes the new entry for each changed path, a null entry removes the path
+     * @param message the message of the commit
+     * @return the id of the new commit or null if the changes didn't modify the tree
+     * @throws RepositoryException if the commit can't be created or if a file would have the path of a directory
+     */
+    public ObjectId commit(ObjectId parentId, Map<String, GitTreeIndex.Entry> changes, String message) throws RepositoryException {
+        ObjectReader objectReader = repository.newObjectReader();
+        ObjectInserter objectInserter = repository.newObjectInserter();
+        try {
+            RevCommit parent = new RevWalk(objectReader).parseCommit(parentId);
+
+            // Load the tree of the parent in memory
+            DirCache dirCache = DirCache.newInCore();
+            DirCacheBuilder builder = dirCache.builder();
+            builder.addTree(new byte[0], DirCacheEntry.STAGE_0, objectReader, parent.getTree());
+            builder.finish();
+            checkConflicts(dirCache, changes);
+
+            // Apply the changes
+            DirCacheEditor editor = dirCache.editor();
+            for (Map.Entry<String, GitTreeIndex.Entry> change : changes.entrySet()) {
+                final GitTreeIndex.Entry entry = change.getValue();
+                if (entry == null) {
+                    editor.add(new DeletePath(change.getKey()));
+                } else {
+                    editor.add(new PathEdit(change.getKey()) {
+                        @Override
+                        public void apply(DirCacheEntry dirCacheEntry) {
+                            dirCacheEntry.setFileMode(entry.getFileMode());
+                            dirCacheEntry.setObjectId(entry.getBlobId());
+                            dirCacheEntry.setLength(entry.getSize());
+                        }
+                    });
+                }
+            }
+            editor.finish();
+
+            ObjectId treeId = dirCache.writeTree(objectInserter);
+
+            // No changes, so do not commit
+            if (treeId.equals(parent.getTree())) {
+                return null;
+            }
+
+            PersonIdent personIdent = new PersonIdent(COMMITTER_NAME, COMMITTER_EMAIL);
+            CommitBuilder commitBuilder = new CommitBuilder();
+            commitBuilder.setTreeId(treeId);
+            commitBuilder.setParentId(parent);
+            commitBuilder.setAuthor(personIdent);
+            commitBuilder.setCommitter(personIdent);
+            commitBuilder.setMessage(message);
+            ObjectId commitId = objectInserter.insert(commitBuilder);
+            objectInserter.flush();
+
+            // Derive the index of the new commit from the index of its parent if it is known
+            GitTreeIndex parentIndex = treeIndexCache.getIfPresent(parent);
+            if (parentIndex != null) {
+                long lastModified = 1000L * (personIdent.getWhen().getTime() / 1000L);
+                treeIndexCache.put(parentIndex.derive(commitId, lastModified, changes));
+            }
+
+            return commitId;
+        } catch (IOException e) {
+            throw new RepositoryException("Cannot commit the changes with message '" + message + "'.", e);
+        } finally {
+            objectInserter.release();
+            objectReader.release();
+        }
+    }
+
+    /**
+     * Checks that the added paths don't conflict with the other entries of the tree once the changes are applied: a
+     * file can't have the path of a directory. Only the changed paths are checked.
+     * @param dirCache the tree on which the changes are applied
+     * @param changes the changes to apply on the tree
+     * @throws RepositoryException if a file and a directory would have the same path
+     */
+    protected void checkConflicts(DirCache dirCache, Map<String, GitTreeIndex.Entry> changes) throws RepositoryException {
+        for (Map.Entry<String, GitTreeIndex.Entry> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                continue;
+            }
+            String path = change.getKey();
+
+            // Parent directories of the path are not files
+            int slash = path.indexOf('/');
+            while (slash != -1) {
+                String parent = path.substring(0, slash);
+                if (changes.get(parent) != null || (dirCache.findEntry(parent) >= 0 && !changes.containsKey(parent))) {
+                    throw new RepositoryException("Cannot add the file '" + path + "', '" + parent + "' is a file");
+                }
+                slash = path.indexOf('/', slash + 1);
+            }
+
+            // The path is not a directory, its entries are right after the insertion point of "path/". The added ones
+            // are already checked as their parent is the path
+            String directory = path.concat("/");
+            int position = dirCache.findEntry(directory);
+            if (position < 0) {
+                position = -(position + 1);
+            }
+            while (position < dirCache.getEntryCount()) {
+                String entryPath = dirCache.getEntry(position).getPathString();
+                if (!entryPath.startsWith(directory)) {
+                    break;
+                }
+                if (!changes.containsKey(entryPath)) {
+                    throw new RepositoryException("Cannot add the file '" + path + "', it is a directory");
+                }
+                position++;
+            }
+        }
+    }
+
+    /**
+     * Computes the paths changed between two commits. Subtrees with the same id in both commits are skipped without being read.
+     * @param oldCommitId the old commit, null for an empty tree
+     * @param newCommitId the new commit, null for an empty tree
+     * @return the changes of the blobs, ordered by path
+     * @throws RepositoryException if the trees can't be read
+     */
+    public List<PathChange> diff(ObjectId oldCommitId, ObjectId newCommitId) throws RepositoryException {
+        List<PathChange> changes = new ArrayList<PathChange>();
+        ObjectReader objectReader = repository.newObjectReader();
+        try {
+            RevWalk revWalk = new RevWalk(objectReader);
+            TreeWalk treeWalk = new TreeWalk(objectReader);
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(TreeFilter.ANY_DIFF);
+            addTree(treeWalk, revWalk, oldCommitId);
+            addTree(treeWalk, revWalk, newCommitId);
+            while (treeWalk.next()) {
+                PathChange.Type type;
+                if (treeWalk.getRawMode(0) == 0) {
+                    type = PathChange.Type.ADDED;
+                } else if (treeWalk.getRawMode(1) == 0) {
+                    type = PathChange.Type.REMOVED;
+                } else {
+                    type = PathChange.Type.MODIFIED;
+                }
+                changes.add(new PathChange(treeWalk.getPathString(), type));
+            }
+        } catch (IOException e) {
+            throw new RepositoryException("Cannot compute the changes between the commits '" + oldCommitId + "' and '" + newCommitId + "'.", e);
+        } finally {
+            objectReader.release();
+        }
+        return changes;
+    }
+
+    protected void addTree(TreeWalk treeWalk, RevWalk revWalk, ObjectId commitId) throws IOException {
+        if (commitId == null) {
+            treeWalk.addTree(new EmptyTreeIterator());
+        } else {
+            treeWalk.addTree(revWalk.parseCommit(commitId).getTree());
+        }
+    }
+
+    /**
+     * Moves a reference to the given commit with a compare-and-set on its current value.
+     * @param refName the name of the reference
+     * @param commitId the new value
+     * @throws RepositoryException if the reference can't be moved
+     */
+    public void updateRef(String refName, ObjectId commitId) throws RepositoryException {
+        for (int attempt = 0; attempt < REF_UPDATE_ATTEMPTS; attempt++) {
+            Ref ref = null;
+            try {
+                ref = repository.getRef(refName);
+            } catch (IOException e) {
+                throw new RepositoryException("Cannot update the reference '" + refName + "'", e);
+            }
+            if (compareAndSetRef(refName, ref == null ? null : ref.getObjectId(), commitId)) {
+                return;
+            }
+            // Concurrently updated, try again with the new value
+        }
+        throw new RepositoryException("Cannot update the reference '" + refName + "', it is concurrently updated");
+    }
+
+    /**
+     * Moves a reference to the given commit only if it still has the expected value.
+     * @param refName the name of the reference
+     * @param expectedId the expected current value, null if the reference should not exist
+     * @param commitId the new value
+     * @return false if the reference doesn't have the expected value
+     * @throws RepositoryException if the reference can't be moved
+     */
+    public boolean compareAndSetRef(String refName, ObjectId expectedId, ObjectId commitId) throws RepositoryException {
+        try {
+            RefUpdate refUpdate = repository.updateRef(refName);
+            refUpdate.setExpectedOldObjectId(expectedId == null ? ObjectId.zeroId() : expectedId);
+            refUpdate.setNewObjectId(commitId);
+            refUpdate.setForceUpdate(true);
+            refUpdate.setRefLogMessage("config: update", false);
+            switch (refUpdate.update()) {
+                case NEW:
+                case FORCED:
+                case FAST_FORWARD:
+                case NO_CHANGE:
+                    return true;
+                case LOCK_FAILURE:
+                    return false;
+                default:
+                    throw new RepositoryException("Cannot update the reference '" + refName + "' to '" + commitId.name() + "'");
+            }
+        } catch (IOException e) {
+            throw new RepositoryException("Cannot update the reference '" + refName + "'", e);
+        }
+    }
+
+    /**
+     * Deletes a reference, whatever its value.
+     * @param refName the name of the reference
+     * @throws RepositoryException if the reference can't be deleted
+     */
+    public void deleteRef(String refName) throws RepositoryException {
+        try {
+            RefUpdate refUpdate = repository.updateRef(refName);
+            refUpdate.setForceUpdate(true);
+            switch (refUpdate.delete()) {
+                case NEW:
+                case FORCED:
+                case NO_CHANGE:
+                    return;
+                default:
+                    throw new RepositoryException("Cannot delete the reference '" + refName + "'");
+            }
+        } catch (IOException e) {
+            throw new RepositoryException("Cannot delete the reference '" + refName + "'", e);
+        }
+    }
+
+    /**
+     * Counts the bytes read from a stream.
+     */
+    protected static class CountingInputStream extends FilterInputStream {
+
+        private long count = 0;
+
+        public CountingInputStream(InputStream inputStream) {
+            super(inputStream);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+
 }
@@ -16,19 +16,31 @@
 
 package com.peergreen.configuration.git;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
 
-import com.peergreen.configuration.api.ConfigRepository;
 import com.peergreen.configuration.api.Path;
+import com.peergreen.configuration.api.PathPattern;
+import com.peergreen.configuration.api.PathVisitor;
 import com.peergreen.configuration.api.Read;
 import com.peergreen.configuration.api.RepositoryException;
 import com.peergreen.configuration.api.Version;
@@ -40,27 +52,36 @@ import com.peergreen.configuration.api.VersionedResource;
  */
 public class GitRead implements Read {
 
-    private final ConfigRepository gitRepository;
+    private final GitRepository gitRepository;
 
     private final GitManager gitManager;
 
-    private ObjectId objectIdRevision;
+    private volatile ObjectId objectIdRevision;
 
     private final Version version;
 
+    /**
+     * Access through which this view has been obtained, null if it has been obtained from the repository itself.
+     */
+    private volatile GitRepositoryAccess access;
 
 
     public GitRead(GitRepository gitRepository, Version version) throws RepositoryException {
         this.gitRepository = gitRepository;
         this.gitManager = gitRepository.getGitManager();
+        ObjectId revision = null;
         if (version == null ) {
-            version = gitRepository.getProductionVersion();
+            // Production version and its commit are cached by the repository
+            GitRepository.Production production = gitRepository.getProduction();
+            version = production.getVersion();
+            revision = production.getCommitId();
+        } else {
+            revision = gitManager.getObjectidForVersion(version);
         }
         if (version == null ) {
             // No production version, needs to get the master branch
             this.objectIdRevision = gitManager.getHead();
         } else {
-            ObjectId revision = gitManager.getObjectidForVersion(version);
             if (revision == null) {
                 throw new RepositoryException("Unable to initialize a repository with an invalid version '" + version.getName() + "'");
             }
@@ -76,24 +97,15 @@ public class GitRead implements Read {
 
 
 
-    protected File checkAndGetResourceFile(String path) throws RepositoryException {
-        File repositoryRootDir;
-        try {
-            repositoryRootDir = getGitManager().repository().getWorkTree().getCanonicalFile();
-        } catch (IOException e) {
-            throw new RepositoryException("Cannot get repository directory", e);
-        }
-        File resourceFile;
-        try {
-            resourceFile = new File(repositoryRootDir, getFilePattern(path)).getCanonicalFile();
-        } catch (IOException e) {
-            throw new RepositoryException("Cannot get file to write resource", e);
-        }
-        if (!resourceFile.getAbsolutePath().startsWith(repositoryRootDir.getAbsolutePath())) {
-            throw new RepositoryException("Try to read a resource '" + path + "' in a different directory than the repository, this is forbidden");
-        }
-        return resourceFile;
-
+    /**
+     * Checks that the given path stays inside the repository and gets its name in the git trees.
+     * @param path the path of the resource
+     * @return the normalized path, using '/' as separator
+     * @throws RepositoryException if the path is outside of the repository
+     */
+    protected String checkAndGetGitPath(String path) throws RepositoryException {
+        check();
+        return gitManager.checkAndGetGitPath(path);
     }
 
 
@@ -101,47 +113,122 @@ public class GitRead implements Read {
     public VersionedResource getResource(String path) throws RepositoryException {
 
         // Check resource is not in upper/outside directories
-        checkAndGetResourceFile(path);
+        String gitPath = checkAndGetGitPath(path);
 
+        GitTreeIndex treeIndex = gitManager.getTreeIndex(getObjectIdRevision());
 
-        RevWalk walk = new RevWalk(gitManager.repository());
-
-        RevCommit revCommitVersion = null;
-        try {
-            revCommitVersion = walk.parseCommit(objectIdRevision);
-        } catch (IOException e) {
-            throw new RepositoryException("Unable to get the resource for the given path '" + path + "'", e);
+        // Path not found
+        GitTreeIndex.Entry entry = treeIndex.get(gitPath);
+        if (entry == null) {
+            return null;
         }
 
+        // Content is only loaded when the resource is opened
+        return new GitResource(gitManager.blobCache(), entry, treeIndex.lastModified(), version);
 
-        int lastModified = revCommitVersion.getCommitTime();
+    }
 
-        TreeWalk treeWalk = null;
-        try {
-            treeWalk = TreeWalk.forPath(gitManager.repository(), path, revCommitVersion.getTree());
-        } catch (IOException e) {
-            throw new RepositoryException("Unable to get the resource for the given path '" + path + "'", e);
+    @Override
+    public Map<String, VersionedResource> getResources(Collection<String> paths) throws RepositoryException {
+        check();
+
+        // Requested paths by their name in the git trees
+        Map<String, List<String>> requested = new HashMap<String, List<String>>();
+        for (String path : paths) {
+            String gitPath = checkAndGetGitPath(path);
+            List<String> names = requested.get(gitPath);
+            if (names == null) {
+                names = new ArrayList<String>(1);
+                requested.put(gitPath, names);
+            }
+            names.add(path);
         }
 
-        // Path not found
-        if (treeWalk == null) {
-            return null;
+        Map<String, VersionedResource> resources = new LinkedHashMap<String, VersionedResource>();
+        if (requested.isEmpty()) {
+            return resources;
         }
 
-        ObjectId foundId = treeWalk.getObjectId(0);
-
+        // Already indexed, only lookups
+        GitTreeIndex treeIndex = gitManager.treeIndexCache().getIfPresent(getObjectIdRevision());
+        if (treeIndex != null) {
+            for (Map.Entry<String, List<String>> entry : requested.entrySet()) {
+                GitTreeIndex.Entry indexEntry = treeIndex.get(entry.getKey());
+                if (indexEntry != null) {
+                    addResource(resources, entry.getValue(), new GitResource(gitManager.blobCache(), indexEntry, treeIndex.lastModified(), version));
+                }
+            }
+            return resources;
+        }
 
-        ObjectLoader objectLoader = null;
+        // One walk of the tree, only the subtrees leading to the requested paths are read
+        ObjectReader objectReader = gitManager.repository().newObjectReader();
         try {
-            objectLoader = gitManager.repository().open(foundId);
+            RevCommit revCommit = new RevWalk(objectReader).parseCommit(getObjectIdRevision());
+            long lastModified = 1000L * revCommit.getCommitTime();
+
+            TreeWalk treeWalk = new TreeWalk(objectReader);
+            treeWalk.setRecursive(true);
+            treeWalk.addTree(revCommit.getTree());
+            treeWalk.setFilter(PathFilterGroup.createFromStrings(requested.keySet()));
+            while (treeWalk.next()) {
+                List<String> names = requested.get(treeWalk.getPathString());
+                if (names != null) {
+                    ObjectId blobId = treeWalk.getObjectId(0);
+                    long size = objectReader.getObjectSize(blobId, Constants.OBJ_BLOB);
+                    GitTreeIndex.Entry entry = new GitTreeIndex.Entry(blobId, treeWalk.getFileMode(0), size);
+                    addResource(resources, names, new GitResource(gitManager.blobCache(), entry, lastModified, version));
+                }
+            }
         } catch (IOException e) {
-            throw new RepositoryException("Unable to get the resource for the given path '" + path + "'", e);
+            throw new RepositoryException("Unable to get the resources of the revision '" + getObjectIdRevision().name() + "'", e);
         } finally {
-            walk.dispose();
+            objectReader.release();
         }
+        return resources;
+    }
+
+    @Override
+    public void export(WritableByteChannel channel) throws RepositoryException {
+        export(Channels.newOutputStream(channel));
+    }
+
+    /**
+     * Exports the tree of the revision. The blobs are read in the order of the tree with a single reader,
+     * they are not loaded in the blob cache.
+     */
+    @Override
+    public void export(OutputStream output) throws RepositoryException {
+        check();
+        ObjectReader objectReader = gitManager.repository().newObjectReader();
+        try {
+            RevCommit revCommit = new RevWalk(objectReader).parseCommit(getObjectIdRevision());
+            long lastModified = 1000L * revCommit.getCommitTime();
 
-        return new GitResource(objectLoader, 1000L * lastModified, version);
+            ZipOutputStream zipOutputStream = new ZipOutputStream(output);
+            TreeWalk treeWalk = new TreeWalk(objectReader);
+            treeWalk.setRecursive(true);
+            treeWalk.addTree(revCommit.getTree());
+            while (treeWalk.next()) {
+                ZipEntry zipEntry = new ZipEntry(treeWalk.getPathString());
+                zipEntry.setTime(lastModified);
+                zipOutputStream.putNextEntry(zipEntry);
+                objectReader.open(treeWalk.getObjectId(0), Constants.OBJ_BLOB).copyTo(zipOutputStream);
+                zipOutputStream.closeEntry();
+            }
+            zipOutputStream.finish();
+            zipOutputStream.flush();
+        } catch (IOException e) {
+            throw new RepositoryException("Unable to export the revision '" + getObjectIdRevision().name() + "'", e);
+        } finally {
+            objectReader.release();
+        }
+    }
 
+    private void addResource(Map<String, VersionedResource> resources, List<String> names, VersionedResource resource) {
+        for (String name : names) {
+            resources.put(name, resource);
+        }
     }
 
     public ObjectId getObjectIdRevision() {
@@ -156,40 +243,118 @@ public class GitRead implements Read {
 
     @Override
     public List<Path> getPaths() throws RepositoryException {
+        check();
 
-        List<Path> paths = new ArrayList<Path>();
+        GitTreeIndex treeIndex = gitManager.getTreeIndex(getObjectIdRevision());
 
-        TreeWalk treeWalk = new TreeWalk(gitManager.repository());
-        treeWalk.setRecursive(true);
+        List<Path> paths = new ArrayList<Path>(treeIndex.size());
+        for (Map.Entry<String, GitTreeIndex.Entry> entry : treeIndex.getEntries().entrySet()) {
+            paths.add(new GitPath(entry.getKey(), entry.getValue().getSize(), treeIndex.lastModified()));
+        }
 
-        RevWalk revWalk = new RevWalk(gitManager.repository());
+        return paths;
 
-        try {
+    }
 
-            treeWalk.addTree(revWalk.parseTree(objectIdRevision));
 
-            while (treeWalk.next()) {
-                String path = treeWalk.getPathString();
-                VersionedResource resource = getResource(path);
+    @Override
+    public List<Path> getPaths(String filter) throws RepositoryException {
+        final List<Path> paths = new ArrayList<Path>();
+        walkPaths(PathPattern.compile(filter), new PathVisitor() {
+            @Override
+            public boolean visit(Path path) {
+                paths.add(path);
+                return true;
+            }
+        });
+        return paths;
+    }
+
+    @Override
+    public boolean walkPaths(PathVisitor visitor) throws RepositoryException {
+        return walkPaths((PathPattern) null, visitor);
+    }
+
+    @Override
+    public boolean walkPaths(String filter, PathVisitor visitor) throws RepositoryException {
+        return walkPaths(PathPattern.compile(filter), visitor);
+    }
 
-                paths.add(new GitPath(path, resource.getSize(), resource.lastModified()));
+    /**
+     * Walks the paths selected by the pattern. If the tree of the revision is not indexed, the paths are read
+     * while walking the tree and the index is not built.
+     * @param pattern the pattern, null for all the paths
+     * @param visitor the visitor receiving each path
+     * @return true if all the paths have been visited, false if the visitor stopped the walk
+     * @throws RepositoryException if the tree can't be read or if the visitor failed
+     */
+    protected boolean walkPaths(PathPattern pattern, PathVisitor visitor) throws RepositoryException {
+        check();
+        // Already indexed, no tree needs to be read
+        GitTreeIndex treeIndex = gitManager.treeIndexCache().getIfPresent(getObjectIdRevision());
+        if (treeIndex != null) {
+            for (Map.Entry<String, GitTreeIndex.Entry> entry : treeIndex.getEntries().entrySet()) {
+                if (pattern == null || pattern.matches(entry.getKey())) {
+                    if (!visitor.visit(new GitPath(entry.getKey(), entry.getValue().getSize(), treeIndex.lastModified()))) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        // Only the subtrees leading to the base directory are read
+        ObjectReader objectReader = gitManager.repository().newObjectReader();
+        try {
+            RevCommit revCommit = new RevWalk(objectReader).parseCommit(getObjectIdRevision());
+            long lastModified = 1000L * revCommit.getCommitTime();
+
+            TreeWalk treeWalk = new TreeWalk(objectReader);
+            treeWalk.setRecursive(true);
+            treeWalk.addTree(revCommit.getTree());
+            if (pattern != null && !pattern.getBaseDirectory().isEmpty()) {
+                treeWalk.setFilter(PathFilterGroup.createFromStrings(Collections.singleton(pattern.getBaseDirectory())));
             }
+            while (treeWalk.next()) {
+                String name = treeWalk.getPathString();
+                if (pattern == null || pattern.matches(name)) {
+                    long size = objectReader.getObjectSize(treeWalk.getObjectId(0), Constants.OBJ_BLOB);
+                    if (!visitor.visit(new GitPath(name, size, lastModified))) {
+                        return false;
+                    }
+                }
+            }
+            return true;
         } catch (IOException e) {
-            throw new RepositoryException("Unable to get the paths", e);
+            throw new RepositoryException("Unable to walk the paths of the revision '" + getObjectIdRevision().name() + "'", e);
         } finally {
-            revWalk.dispose();
+            objectReader.release();
         }
-
-        return paths;
-
     }
 
+    /**
+     * Binds this view to the access through which it has been obtained, it can't be used once the access is closed.
+     * @param access the access of the caller
+     */
+    protected void setAccess(GitRepositoryAccess access) {
+        this.access = access;
+    }
 
-    protected String getFilePattern(String path) {
-        return path.replace("/", File.separator);
+    /**
+     * Checks that this view can still be used.
+     * @throws RepositoryException if its access is closed or if the repository has been disposed
+     */
+    protected void check() throws RepositoryException {
+        GitRepositoryAccess currentAccess = access;
+        if (currentAccess != null) {
+            currentAccess.check();
+        }
+        if (gitRepository.isDisposed()) {
+            throw new RepositoryException("The repository '" + gitRepository.getName() + "' is closed");
+        }
     }
 
-    public ConfigRepository getGitRepository() {
+    public GitRepository getGitRepository() {
         return gitRepository;
     }
 
@@ -0,0 +1,347 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryCache;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.transport.BundleWriter;
+import org.eclipse.jgit.transport.PushResult;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
+import org.eclipse.jgit.transport.TagOpt;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.util.FS;
+
+import com.peergreen.configuration.api.RepositoryException;
+import com.peergreen.configuration.api.Version;
+
+/**
+ * Replication of the versions and of the production version between git repositories, e.g. the repositories
+ * of two nodes. The remote is a local repository (path or file:// URI) or a bundle file written by
+ * {@link #writeBundle(OutputStream, Collection)}. Only the missing tags are transferred, with the objects that
+ * the destination doesn't have yet. The production version is switched at the end, once all the versions are
+ * available on the destination.
+ * A version found on both sides with different tags is a conflict: it is not transferred, and the production version is
+ * not switched to it. The conflicts are listed in the report.
+ * The production version is a symbolic reference, which can't be transferred: it is matched by the object of
+ * its tag, each version having its own tag object.
+ * @author Florent Benoit
+ */
+public class GitReplication {
+
+    private static final String PRODUCTION_REF = Constants.R_TAGS + GitRepository.PRODUCTION_TAG;
+
+    private final GitRepository gitRepository;
+
+    private final GitManager gitManager;
+
+    public GitReplication(GitRepository gitRepository) {
+        this.gitRepository = gitRepository;
+        this.gitManager = gitRepository.getGitManager();
+    }
+
+    /**
+     * Fetches the versions of a remote repository that are missing in this repository, then switches to the
+     * production version of the remote.
+     * @param remote the path or the file:// URI of a repository, or the path of a bundle file
+     * @return the fetched versions and the new production version
+     * @throws RepositoryException if the remote can't be read or if the versions can't be fetched
+     */
+    public GitReplicationReport fetch(String remote) throws RepositoryException {
+        long start = System.currentTimeMillis();
+
+        Collection<Ref> remoteRefs = listRemoteRefs(remote);
+        List<RefSpec> refSpecs = new ArrayList<RefSpec>();
+        List<Version> versions = new ArrayList<Version>();
+        List<Version> conflicts = new ArrayList<Version>();
+        for (Ref ref : remoteRefs) {
+            if (!isVersion(ref)) {
+                continue;
+            }
+            ObjectId localId = getObjectId(gitManager.repository(), ref.getName());
+            if (localId == null) {
+                refSpecs.add(new RefSpec(ref.getName() + ":" + ref.getName()));
+                versions.add(new GitVersion(ref));
+            } else if (!localId.equals(ref.getObjectId())) {
+                conflicts.add(new GitVersion(ref));
+            }
+        }
+
+        if (!refSpecs.isEmpty()) {
+            try {
+                gitManager.git().fetch().setRemote(remote).setRefSpecs(refSpecs).setTagOpt(TagOpt.NO_TAGS).call();
+            } catch (GitAPIException e) {
+                throw new RepositoryException("Unable to fetch the versions of '" + remote + "'", e);
+            }
+            gitRepository.notifyChanges();
+        }
+
+        // All the versions are there, production can be switched
+        Version productionVersion = null;
+        String productionName = getProductionName(remoteRefs);
+        if (productionName != null && !productionName.equals(getProductionName(gitManager.repository()))
+                && !contains(conflicts, productionName)) {
+            productionVersion = new GitVersion(productionName);
+            gitRepository.setProductionVersion(productionVersion);
+        }
+
+        return new GitReplicationReport(versions, conflicts, productionVersion, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Pushes the versions of this repository that are missing in a remote repository, then switches the remote to
+     * the production version of this repository. The production version is set directly on the remote repository,
+     * it needs to be a local one. Repositories opened on the remote see the new production version on their next
+     * check of the changes.
+     * @param remote the path or the file:// URI of a local repository
+     * @return the pushed versions and the new production version of the remote
+     * @throws RepositoryException if the remote is not a local repository or if the versions can't be pushed
+     */
+    public GitReplicationReport push(String remote) throws RepositoryException {
+        long start = System.currentTimeMillis();
+
+        Repository destination = openLocalRepository(remote);
+        try {
+            Map<String, Ref> remoteRefs = new HashMap<String, Ref>();
+            for (Ref ref : listRemoteRefs(remote)) {
+                remoteRefs.put(ref.getName(), ref);
+            }
+
+            List<RefSpec> refSpecs = new ArrayList<RefSpec>();
+            List<Version> versions = new ArrayList<Version>();
+            List<Version> conflicts = new ArrayList<Version>();
+            for (Ref ref : gitManager.repository().getTags().values()) {
+                if (!isVersion(ref)) {
+                    continue;
+                }
+                Ref remoteRef = remoteRefs.get(ref.getName());
+                if (remoteRef == null) {
+                    refSpecs.add(new RefSpec(ref.getName() + ":" + ref.getName()));
+                    versions.add(new GitVersion(ref));
+                } else if (!remoteRef.getObjectId().equals(ref.getObjectId())) {
+                    conflicts.add(new GitVersion(ref));
+                }
+            }
+
+            if (!refSpecs.isEmpty()) {
+                Iterable<PushResult> results;
+                try {
+                    results = gitManager.git().push().setRemote(remote).setRefSpecs(refSpecs).call();
+                } catch (GitAPIException e) {
+                    throw new RepositoryException("Unable to push the versions to '" + remote + "'", e);
+                }
+                for (PushResult result : results) {
+                    for (RemoteRefUpdate update : result.getRemoteUpdates()) {
+                        if (update.getStatus() != RemoteRefUpdate.Status.OK && update.getStatus() != RemoteRefUpdate.Status.UP_TO_DATE) {
+                            throw new RepositoryException("Unable to push the version '" + update.getRemoteName() + "' to '"
+                                    + remote + "': " + update.getStatus());
+                        }
+                    }
+                }
+            }
+
+            // All the versions are there, production can be switched
+            Version productionVersion = null;
+            String productionName = getProductionName(gitManager.repository());
+            if (productionName != null && !productionName.equals(getProductionName(destination))
+                    && !contains(conflicts, productionName)) {
+                link(destination, productionName);
+                productionVersion = new GitVersion(productionName);
+            }
+
+            return new GitReplicationReport(versions, conflicts, productionVersion, System.currentTimeMillis() - start);
+        } finally {
+            destination.close();
+        }
+    }
+
+    /**
+     * Writes a bundle with the versions of this repository and its production version, it can be fetched by
+     * {@link #fetch(String)}. Objects reachable from the versions that the destination already has are not written.
+     * @param outputStream the stream receiving the bundle, it is not closed
+     * @param knownVersions the versions that the destination already has
+     * @throws RepositoryException if the bundle can't be written
+     */
+    public void writeBundle(OutputStream outputStream, Collection<Version> knownVersions) throws RepositoryException {
+        Repository repository = gitManager.repository();
+        BundleWriter bundleWriter = new BundleWriter(repository);
+        RevWalk revWalk = new RevWalk(repository);
+        try {
+            // All the tags are listed, the production version is matched with them
+            for (Ref ref : repository.getTags().values()) {
+                bundleWriter.include(ref.getName(), ref.getObjectId());
+            }
+
+            for (Version version : knownVersions) {
+                // The production version of the destination is not the production version of this repository
+                if (GitRepository.PRODUCTION_TAG.equals(version.getName())) {
+                    continue;
+                }
+                if (gitManager.existRef(Constants.R_TAGS + version.getName())) {
+                    bundleWriter.assume(revWalk.parseCommit(gitManager.getObjectidForVersion(version)));
+                }
+            }
+            bundleWriter.writeBundle(NullProgressMonitor.INSTANCE, outputStream);
+        } catch (IOException e) {
+            throw new RepositoryException("Unable to write the bundle of the repository", e);
+        } finally {
+            revWalk.dispose();
+        }
+    }
+
+    protected Collection<Ref> listRemoteRefs(String remote) throws RepositoryException {
+        try {
+            return gitManager.git().lsRemote().setRemote(remote).setTags(true).call();
+        } catch (GitAPIException e) {
+            throw new RepositoryException("Unable to list the versions of '" + remote + "'", e);
+        }
+    }
+
+    /**
+     * @return true if the reference is the tag of a version, false for the production version
+     */
+    protected boolean isVersion(Ref ref) {
+        return ref.getName().startsWith(Constants.R_TAGS) && !PRODUCTION_REF.equals(ref.getName());
+    }
+
+    /**
+     * @return the object of a reference of a local repository, null if there is no such reference
+     */
+    protected ObjectId getObjectId(Repository repository, String name) throws RepositoryException {
+        Ref ref;
+        try {
+            ref = repository.getRef(name);
+        } catch (IOException e) {
+            throw new RepositoryException("Unable to get the reference '" + name + "'", e);
+        }
+        if (ref == null) {
+            return null;
+        }
+        return ref.getObjectId();
+    }
+
+    protected boolean contains(List<Version> versions, String name) {
+        for (Version version : versions) {
+            if (version.getName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the name of the production version among the references of a remote. Its reference is advertised with
+     * the object of its tag, the version is the other tag with the same object.
+     * @param refs the references of the remote
+     * @return the name of the production version, null if there is no production version
+     * @throws RepositoryException if several versions match the production version
+     */
+    protected String getProductionName(Collection<Ref> refs) throws RepositoryException {
+        ObjectId productionId = null;
+        for (Ref ref : refs) {
+            if (PRODUCTION_REF.equals(ref.getName())) {
+                productionId = ref.getObjectId();
+            }
+        }
+        if (productionId == null) {
+            return null;
+        }
+
+        String name = null;
+        for (Ref ref : refs) {
+            if (isVersion(ref) && productionId.equals(ref.getObjectId())) {
+                if (name != null) {
+                    throw new RepositoryException("Unable to find the production version, it matches the versions '" + name
+                            + "' and '" + GitUtils.getShortName(ref.getName()) + "'");
+                }
+                name = GitUtils.getShortName(ref.getName());
+            }
+        }
+        return name;
+    }
+
+    /**
+     * @return the name of the production version of a local repository, null if there is no production version
+     */
+    protected String getProductionName(Repository repository) throws RepositoryException {
+        Ref ref;
+        try {
+            ref = repository.getRef(PRODUCTION_REF);
+        } catch (IOException e) {
+            throw new RepositoryException("Unable to get the production version", e);
+        }
+        if (ref == null || !ref.isSymbolic()) {
+            return null;
+        }
+        return GitUtils.getShortName(ref.getTarget().getName());
+    }
+
+    /**
+     * Switches the production version of a local repository, the reference is replaced atomically.
+     */
+    protected void link(Repository repository, String versionName) throws RepositoryException {
+        try {
+            RefUpdate refUpdate = repository.updateRef(PRODUCTION_REF);
+            refUpdate.disableRefLog();
+            refUpdate.link(Constants.R_TAGS + versionName);
+        } catch (IOException e) {
+            throw new RepositoryException("Unable to set the production version '" + versionName + "'", e);
+        }
+    }
+
+    protected Repository openLocalRepository(String remote) throws RepositoryException {
+        File directory;
+        try {
+            URIish uri = new URIish(remote);
+            if (uri.getScheme() != null && !"file".equals(uri.getScheme())) {
+                throw new RepositoryException("The remote '" + remote + "' is not a local repository");
+            }
+            directory = new File(uri.getPath());
+        } catch (URISyntaxException e) {
+            throw new RepositoryException("Invalid remote '" + remote + "'", e);
+        }
+
+        File gitDir = RepositoryCache.FileKey.resolve(directory, FS.DETECTED);
+        if (gitDir == null) {
+            throw new RepositoryException("The remote '" + remote + "' is not a local repository");
+        }
+        try {
+            return new FileRepositoryBuilder().setGitDir(gitDir).setMustExist(true).build();
+        } catch (IOException e) {
+            throw new RepositoryException("Unable to open the repository '" + remote + "'", e);
+        }
+    }
+
+}
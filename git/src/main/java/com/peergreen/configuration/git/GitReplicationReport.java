@@ -0,0 +1,78 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.git;
+
+import java.util.List;
+
+import com.peergreen.configuration.api.Version;
+
+/**
+ * Result of a replication between two git repositories.
+ * @author Florent Benoit
+ */
+public class GitReplicationReport {
+
+    private final List<Version> versions;
+
+    private final List<Version> conflicts;
+
+    private final Version productionVersion;
+
+    private final long duration;
+
+    public GitReplicationReport(List<Version> versions, List<Version> conflicts, Version productionVersion, long duration) {
+        this.versions = versions;
+        this.conflicts = conflicts;
+        this.productionVersion = productionVersion;
+        this.duration = duration;
+    }
+
+    /**
+     * @return the versions transferred to the destination
+     */
+    public List<Version> getVersions() {
+        return versions;
+    }
+
+    /**
+     * @return the versions found on both sides with different tags, they have not been transferred
+     */
+    public List<Version> getConflicts() {
+        return conflicts;
+    }
+
+    /**
+     * @return the new production version of the destination, null if it has not been switched
+     */
+    public Version getProductionVersion() {
+        return productionVersion;
+    }
+
+    /**
+     * @return duration of the replication in milliseconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    @Override
+    public String toString() {
+        return "GitReplicationReport[versions=" + versions + ", conflicts=" + conflicts + ", productionVersion="
+                + productionVersion + ", duration=" + duration + "ms]";
+    }
+
+}
@@ -18,17 +18,30 @@ package com.peergreen.configuration.git;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.events.ListenerHandle;
+import org.eclipse.jgit.events.RefsChangedEvent;
+import org.eclipse.jgit.events.RefsChangedListener;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
 
 import com.peergreen.configuration.api.ConfigRepository;
+import com.peergreen.configuration.api.PathChange;
 import com.peergreen.configuration.api.Read;
 import com.peergreen.configuration.api.RepositoryException;
+import com.peergreen.configuration.api.RepositoryListener;
 import com.peergreen.configuration.api.Version;
 import com.peergreen.configuration.api.Write;
 
@@ -38,10 +51,79 @@ import com.peergreen.configuration.api.Write;
  */
 public class GitRepository implements ConfigRepository {
 
+    /**
+     * Symbolic tag pointing to the production version.
+     */
+    static final String PRODUCTION_TAG = "current-version";
+
     private final GitManager gitManager;
 
+    /**
+     * Configuration sharing this repository, null if the repository is not shared.
+     */
+    private final GitConfiguration configuration;
+
+    private final String name;
+
+    /**
+     * True once the underlying repository has been closed.
+     */
+    private volatile boolean disposed = false;
+
+    private final GitMaintenance maintenance;
+
+    private final GitReplication replication;
+
+    /**
+     * Resolved production version, null if not yet resolved. Only valid for the generation it has been resolved in.
+     */
+    private volatile Production production = null;
+
+    /**
+     * Incremented when the references change, the production version resolved before needs to be resolved again.
+     */
+    private final AtomicLong productionGeneration = new AtomicLong();
+
+    /**
+     * Write sessions opened on this repository, they are forgotten once no longer used.
+     */
+    private final Map<GitWrite, Boolean> openedSessions = Collections.synchronizedMap(new WeakHashMap<GitWrite, Boolean>());
+
+    private final ListenerHandle refsChangedHandle;
+
+    private final List<RepositoryListener> listeners = new CopyOnWriteArrayList<RepositoryListener>();
+
+    /**
+     * True when jgit has noticed a change of the references since the last notification of the listeners.
+     */
+    private volatile boolean refsChanged = false;
+
+    /**
+     * State of the references last notified to the listeners, null if there is no listener.
+     */
+    private Snapshot snapshot = null;
+
+    private final Object snapshotLock = new Object();
+
     public GitRepository(Repository repository) {
+        this(null, null, repository);
+    }
+
+    public GitRepository(GitConfiguration configuration, String name, Repository repository) {
+        this.configuration = configuration;
+        this.name = name;
         this.gitManager = new GitManager(repository);
+        this.maintenance = new GitMaintenance(this);
+        this.replication = new GitReplication(this);
+
+        // References modified, the production version may have changed
+        this.refsChangedHandle = repository.getListenerList().addRefsChangedListener(new RefsChangedListener() {
+            @Override
+            public void onRefsChanged(RefsChangedEvent event) {
+                productionGeneration.incrementAndGet();
+                refsChanged = true;
+            }
+        });
     }
 
     @Override
@@ -65,24 +147,51 @@ public class GitRepository implements ConfigRepository {
 
     @Override
     public Version getProductionVersion() throws RepositoryException {
-        String name = "current-version";
+        return getProduction().getVersion();
+    }
 
+    /**
+     * Gets the production version and its commit, they are only resolved from the references after a change.
+     * A production resolved while the references are changed is stored with the previous generation, so it is not
+     * used by the next calls.
+     * @return the production, with a null version if there is no production version
+     */
+    protected Production getProduction() throws RepositoryException {
+        long generation = productionGeneration.get();
+        Production current = production;
+        if (current != null && current.generation == generation) {
+            return current;
+        }
+        current = resolveProduction(generation);
+        production = current;
+        return current;
+    }
+
+    /**
+     * Resolves the production version and its commit from the references.
+     * @param generation the generation of the references before reading them
+     * @return the production, with a null version if there is no production version
+     */
+    protected Production resolveProduction(long generation) throws RepositoryException {
+        Production current = null;
         Ref ref = null;
         try {
-            ref = gitManager.repository().getRef(Constants.R_TAGS + name);
+            ref = gitManager.repository().getRef(Constants.R_TAGS + PRODUCTION_TAG);
         } catch (IOException e) {
             throw new RepositoryException("Unable to get the production version", e);
         }
 
-        if (ref != null && ref.isSymbolic()) {
-            name = ref.getTarget().getName().substring(Constants.R_TAGS.length());
-        }
-
         if (ref == null) {
-            return null;
+            current = new Production(null, null, generation);
+        } else {
+            String name = PRODUCTION_TAG;
+            if (ref.isSymbolic()) {
+                name = ref.getTarget().getName().substring(Constants.R_TAGS.length());
+            }
+            Version version = new GitVersion(name);
+            current = new Production(version, gitManager.getObjectidForVersion(version), generation);
         }
-
-        return new GitVersion(name);
+        return current;
     }
 
     @Override
@@ -97,7 +206,7 @@ public class GitRepository implements ConfigRepository {
         // Now, add the symbolic-ref for the current-version
         RefUpdate newHead = null;
         try {
-            newHead = gitManager.repository().updateRef(Constants.R_TAGS + "current-version");
+            newHead = gitManager.repository().updateRef(Constants.R_TAGS + PRODUCTION_TAG);
         } catch (IOException e) {
             throw new RepositoryException("Unable to set the production version", e);
         }
@@ -107,8 +216,11 @@ public class GitRepository implements ConfigRepository {
             newHead.link(Constants.R_TAGS + version.getName());
         } catch (IOException e) {
             throw new RepositoryException("Unable to set the production version", e);
+        } finally {
+            productionGeneration.incrementAndGet();
         }
 
+        notifyChanges();
     }
 
     @Override
@@ -118,7 +230,24 @@ public class GitRepository implements ConfigRepository {
 
     @Override
     public Write init(Version version) throws RepositoryException {
-        return new GitWrite(this, version);
+        GitWrite write = new GitWrite(this, version);
+        openedSessions.put(write, Boolean.TRUE);
+        return write;
+    }
+
+    /**
+     * @return the references of the heads of the write sessions still opened on this repository
+     */
+    public Set<String> getOpenedSessionRefs() {
+        Set<String> sessionRefs = new HashSet<String>();
+        synchronized (openedSessions) {
+            for (GitWrite write : openedSessions.keySet()) {
+                if (!write.isClosed()) {
+                    sessionRefs.add(write.getSessionRef());
+                }
+            }
+        }
+        return sessionRefs;
     }
 
     @Override
@@ -141,9 +270,222 @@ public class GitRepository implements ConfigRepository {
         return gitManager;
     }
 
+    @Override
+    public List<PathChange> diff(Version oldVersion, Version newVersion) throws RepositoryException {
+        return gitManager.diff(getCommitId(oldVersion), getCommitId(newVersion));
+    }
+
+    protected ObjectId getCommitId(Version version) throws RepositoryException {
+        if (version == null) {
+            return null;
+        }
+        ObjectId commitId = gitManager.getObjectidForVersion(version);
+        if (commitId == null) {
+            throw new RepositoryException("Version specified '" + version.getName() + "' is not an available version");
+        }
+        return commitId;
+    }
+
     @Override
     public boolean supportsHistory() {
         return true;
     }
 
+    @Override
+    public void addRepositoryListener(RepositoryListener listener) {
+        synchronized (snapshotLock) {
+            if (snapshot == null) {
+                try {
+                    snapshot = takeSnapshot();
+                } catch (RepositoryException e) {
+                    // Taken at the next check
+                    refsChanged = true;
+                }
+            }
+            listeners.add(listener);
+        }
+    }
+
+    @Override
+    public void removeRepositoryListener(RepositoryListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Checks if the references have been changed, by this process or by another one, and notifies the listeners.
+     * The cached production version is resolved again if it has been changed. Shared repositories are checked periodically by their configuration.
+     * @throws RepositoryException if the references can't be read
+     */
+    public void checkChanges() throws RepositoryException {
+        // Let jgit look for references modified on the disk, it sends a RefsChangedEvent if any.
+        // Needed even without listeners, the production version may have been switched by another process (e.g. a replication)
+        try {
+            gitManager.repository().scanForRepoChanges();
+        } catch (IOException e) {
+            throw new RepositoryException("Unable to check the references", e);
+        }
+
+        if (listeners.isEmpty()) {
+            return;
+        }
+
+        synchronized (snapshotLock) {
+            if (!refsChanged && snapshot != null) {
+                return;
+            }
+            refsChanged = false;
+            Snapshot previous = snapshot;
+            try {
+                snapshot = takeSnapshot();
+            } catch (RepositoryException e) {
+                refsChanged = true;
+                throw e;
+            }
+            if (previous != null) {
+                fireChanges(previous, snapshot);
+            }
+        }
+    }
+
+    /**
+     * Notifies the listeners of a change made by this process. Failures are ignored, the change is notified by the next check.
+     */
+    protected void notifyChanges() {
+        refsChanged = true;
+        try {
+            checkChanges();
+        } catch (RepositoryException e) {
+            return;
+        }
+    }
+
+    protected Snapshot takeSnapshot() throws RepositoryException {
+        Set<String> tags = new HashSet<String>(gitManager.repository().getTags().keySet());
+        tags.remove(PRODUCTION_TAG);
+        return new Snapshot(tags, getProduction());
+    }
+
+    protected void fireChanges(Snapshot previous, Snapshot current) throws RepositoryException {
+        for (String tag : current.tags) {
+            if (!previous.tags.contains(tag)) {
+                Version version = new GitVersion(tag);
+                for (RepositoryListener listener : listeners) {
+                    try {
+                        listener.versionAdded(version);
+                    } catch (RuntimeException e) {
+                        // Other listeners are still notified
+                        continue;
+                    }
+                }
+            }
+        }
+
+        ObjectId previousCommitId = previous.production.getCommitId();
+        ObjectId currentCommitId = current.production.getCommitId();
+        if (!sameVersion(previous.production.getVersion(), current.production.getVersion())
+                || (currentCommitId != null && !currentCommitId.equals(previousCommitId))) {
+            List<PathChange> changes = gitManager.diff(previousCommitId, currentCommitId);
+            for (RepositoryListener listener : listeners) {
+                try {
+                    listener.productionVersionChanged(previous.production.getVersion(), current.production.getVersion(), changes);
+                } catch (RuntimeException e) {
+                    // Other listeners are still notified
+                    continue;
+                }
+            }
+        }
+    }
+
+    private static boolean sameVersion(Version version1, Version version2) {
+        if (version1 == null || version2 == null) {
+            return version1 == version2;
+        }
+        return version1.getName().equals(version2.getName());
+    }
+
+    /**
+     * Closes a repository that is not shared. A shared repository is released by closing the accesses returned by the
+     * configuration, it is disposed once it is no longer used by anyone.
+     * @throws RepositoryException if the repository is shared
+     */
+    @Override
+    public void close() throws RepositoryException {
+        if (configuration != null) {
+            throw new RepositoryException("The repository '" + name + "' is shared, its accesses need to be closed instead");
+        }
+        dispose();
+    }
+
+    /**
+     * Closes the underlying repository.
+     */
+    protected void dispose() {
+        refsChangedHandle.remove();
+        disposed = true;
+        gitManager.repository().close();
+    }
+
+    /**
+     * @return true once the underlying repository has been closed
+     */
+    public boolean isDisposed() {
+        return disposed;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public GitMaintenance getMaintenance() {
+        return maintenance;
+    }
+
+    public GitReplication getReplication() {
+        return replication;
+    }
+
+    /**
+     * Tags and production version last notified to the listeners.
+     */
+    protected static class Snapshot {
+
+        private final Set<String> tags;
+
+        private final Production production;
+
+        public Snapshot(Set<String> tags, Production production) {
+            this.tags = tags;
+            this.production = production;
+        }
+    }
+
+    /**
+     * Production version with the commit it points to.
+     */
+    protected static class Production {
+
+        private final Version version;
+
+        private final ObjectId commitId;
+
+        /**
+         * Generation of the references in which it has been resolved.
+         */
+        private final long generation;
+
+        public Production(Version version, ObjectId commitId, long generation) {
+            this.version = version;
+            this.commitId = commitId;
+            this.generation = generation;
+        }
+
+        public Version getVersion() {
+            return version;
+        }
+
+        public ObjectId getCommitId() {
+            return commitId;
+        }
+    }
+
 }
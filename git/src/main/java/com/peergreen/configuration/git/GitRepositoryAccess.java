@@ -0,0 +1,167 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.git;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.peergreen.configuration.api.ConfigRepository;
+import com.peergreen.configuration.api.PathChange;
+import com.peergreen.configuration.api.Read;
+import com.peergreen.configuration.api.RepositoryException;
+import com.peergreen.configuration.api.RepositoryListener;
+import com.peergreen.configuration.api.Version;
+import com.peergreen.configuration.api.Write;
+
+/**
+ * Access of a caller to a repository shared by the configuration.
+ * The shared repository is only disposed once all its accesses are closed, so each caller needs to close its access
+ * when it no longer uses it. Closing it releases its reference on the repository only once, and unregisters the
+ * listeners it has registered. The views obtained through an access can't be used once it is closed.
+ * @author Florent Benoit
+ */
+public class GitRepositoryAccess implements ConfigRepository {
+
+    private final GitConfiguration configuration;
+
+    private final GitRepository repository;
+
+    /**
+     * Listeners registered through this access.
+     */
+    private final List<RepositoryListener> listeners = new CopyOnWriteArrayList<RepositoryListener>();
+
+    private volatile boolean closed = false;
+
+    public GitRepositoryAccess(GitConfiguration configuration, GitRepository repository) {
+        this.configuration = configuration;
+        this.repository = repository;
+    }
+
+    /**
+     * @return the shared repository
+     */
+    public GitRepository getGitRepository() {
+        return repository;
+    }
+
+    @Override
+    public List<Version> getVersions() throws RepositoryException {
+        check();
+        return repository.getVersions();
+    }
+
+    @Override
+    public Version getProductionVersion() throws RepositoryException {
+        check();
+        return repository.getProductionVersion();
+    }
+
+    @Override
+    public void setProductionVersion(Version newVersion) throws RepositoryException {
+        check();
+        repository.setProductionVersion(newVersion);
+    }
+
+    @Override
+    public Read read(Version version) throws RepositoryException {
+        check();
+        return bind(repository.read(version));
+    }
+
+    @Override
+    public Read read() throws RepositoryException {
+        check();
+        return bind(repository.read());
+    }
+
+    @Override
+    public Write init() throws RepositoryException {
+        check();
+        return bind(repository.init());
+    }
+
+    @Override
+    public Write init(Version version) throws RepositoryException {
+        check();
+        return bind(repository.init(version));
+    }
+
+    /**
+     * Binds a view to this access, it checks the access each time it is used.
+     * @param view the view obtained from the repository, may be null
+     * @return the given view
+     */
+    protected <T extends Read> T bind(T view) {
+        if (view instanceof GitRead) {
+            ((GitRead) view).setAccess(this);
+        }
+        return view;
+    }
+
+    @Override
+    public List<PathChange> diff(Version oldVersion, Version newVersion) throws RepositoryException {
+        check();
+        return repository.diff(oldVersion, newVersion);
+    }
+
+    @Override
+    public boolean supportsHistory() {
+        return repository.supportsHistory();
+    }
+
+    @Override
+    public void addRepositoryListener(RepositoryListener listener) {
+        listeners.add(listener);
+        repository.addRepositoryListener(listener);
+    }
+
+    @Override
+    public void removeRepositoryListener(RepositoryListener listener) {
+        listeners.remove(listener);
+        repository.removeRepositoryListener(listener);
+    }
+
+    /**
+     * Releases this access, closing it again does nothing.
+     */
+    @Override
+    public void close() throws RepositoryException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        for (RepositoryListener listener : listeners) {
+            repository.removeRepositoryListener(listener);
+        }
+        listeners.clear();
+        configuration.release(repository.getName());
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    protected void check() throws RepositoryException {
+        if (closed) {
+            throw new RepositoryException("The access to the repository '" + repository.getName() + "' is closed");
+        }
+    }
+
+}
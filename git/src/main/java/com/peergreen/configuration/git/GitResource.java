@@ -18,8 +18,11 @@ package com.peergreen.configuration.git;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
-import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectId;
 
 import com.peergreen.configuration.api.RepositoryException;
 import com.peergreen.configuration.api.Version;
@@ -33,12 +36,18 @@ public class GitResource implements VersionedResource {
 
     private Version version = null;
 
-    private final ObjectLoader objectLoader;
+    private final GitBlobCache blobCache;
+
+    private final ObjectId blobId;
+
+    private final long size;
 
     private final long lastModified;
 
-    public GitResource(ObjectLoader objectLoader, long lastModified, Version version) {
-        this.objectLoader = objectLoader;
+    public GitResource(GitBlobCache blobCache, GitTreeIndex.Entry entry, long lastModified, Version version) {
+        this.blobCache = blobCache;
+        this.blobId = entry.getBlobId();
+        this.size = entry.getSize();
         this.lastModified = lastModified;
         this.version = version;
     }
@@ -51,12 +60,39 @@ public class GitResource implements VersionedResource {
     @Override
     public InputStream openStream() throws RepositoryException {
         try {
-            return objectLoader.openStream();
+            return blobCache.openStream(blobId);
         } catch (IOException e) {
             throw new RepositoryException("Unable to load the stream", e);
         }
     }
 
+    @Override
+    public ReadableByteChannel openChannel() throws RepositoryException {
+        try {
+            return blobCache.openChannel(blobId);
+        } catch (IOException e) {
+            throw new RepositoryException("Unable to open the channel", e);
+        }
+    }
+
+    @Override
+    public long transferTo(WritableByteChannel target) throws RepositoryException {
+        try {
+            return blobCache.transferTo(blobId, target);
+        } catch (IOException e) {
+            throw new RepositoryException("Unable to transfer the content", e);
+        }
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer() throws RepositoryException {
+        try {
+            return blobCache.getBuffer(blobId);
+        } catch (IOException e) {
+            throw new RepositoryException("Unable to load the content", e);
+        }
+    }
+
     @Override
     public long lastModified() {
         return lastModified;
@@ -64,7 +100,11 @@ public class GitResource implements VersionedResource {
 
     @Override
     public long getSize() {
-        return objectLoader.getSize();
+        return size;
+    }
+
+    public ObjectId getBlobId() {
+        return blobId;
     }
 
 }
@@ -0,0 +1,183 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.git;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+/**
+ * Immutable index of all the entries of the tree of a commit.
+ * As the tree of a commit never changes, an index can be shared by all the readers of this commit.
+ * @author Florent Benoit
+ */
+public class GitTreeIndex {
+
+    /**
+     * Order of the paths in a recursive walk of a tree: git sorts the paths by their UTF-8 bytes, i.e. by code points.
+     * A derived index keeps the order of an index built from the tree.
+     */
+    public static final Comparator<String> PATH_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String path1, String path2) {
+            int length = Math.min(path1.length(), path2.length());
+            for (int i = 0; i < length; i++) {
+                if (path1.charAt(i) != path2.charAt(i)) {
+                    return Character.codePointAt(path1, i) - Character.codePointAt(path2, i);
+                }
+            }
+            return path1.length() - path2.length();
+        }
+    };
+
+    private final ObjectId commitId;
+
+    private final long lastModified;
+
+    /**
+     * Entries by path, in the order of the tree.
+     */
+    private final SortedMap<String, Entry> entries;
+
+    protected GitTreeIndex(ObjectId commitId, long lastModified, SortedMap<String, Entry> entries) {
+        this.commitId = commitId;
+        this.lastModified = lastModified;
+        this.entries = Collections.unmodifiableSortedMap(entries);
+    }
+
+    /**
+     * Builds the index of the given commit with a single walk on its tree.
+     * @param repository the repository containing the commit
+     * @param commitId the id of the commit
+     * @return the index of the tree
+     * @throws IOException if the tree can't be read
+     */
+    public static GitTreeIndex build(Repository repository, ObjectId commitId) throws IOException {
+        SortedMap<String, Entry> entries = new TreeMap<String, Entry>(PATH_ORDER);
+
+        ObjectReader objectReader = repository.newObjectReader();
+        try {
+            RevWalk revWalk = new RevWalk(objectReader);
+            RevCommit revCommit = revWalk.parseCommit(commitId);
+
+            TreeWalk treeWalk = new TreeWalk(objectReader);
+            treeWalk.setRecursive(true);
+            treeWalk.addTree(revCommit.getTree());
+
+            while (treeWalk.next()) {
+                ObjectId blobId = treeWalk.getObjectId(0);
+                // Only read the header of the blob to get its size
+                long size = objectReader.getObjectSize(blobId, Constants.OBJ_BLOB);
+                entries.put(treeWalk.getPathString(), new Entry(blobId, treeWalk.getFileMode(0), size));
+            }
+
+            return new GitTreeIndex(revCommit.copy(), 1000L * revCommit.getCommitTime(), entries);
+        } finally {
+            objectReader.release();
+        }
+    }
+
+    /**
+     * Derives the index of a child commit by applying its changes on this index.
+     * @param childCommitId the id of the child commit
+     * @param childLastModified the time of the child commit
+     * @param changes the new entry for each changed path, a null entry for a removed path
+     * @return the index of the child commit
+     */
+    public GitTreeIndex derive(ObjectId childCommitId, long childLastModified, Map<String, Entry> changes) {
+        SortedMap<String, Entry> childEntries = new TreeMap<String, Entry>(entries);
+        for (Map.Entry<String, Entry> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                childEntries.remove(change.getKey());
+            } else {
+                childEntries.put(change.getKey(), change.getValue());
+            }
+        }
+        return new GitTreeIndex(childCommitId.copy(), childLastModified, childEntries);
+    }
+
+    public ObjectId getCommitId() {
+        return commitId;
+    }
+
+    /**
+     * @return time of the commit, shared by all the entries
+     */
+    public long lastModified() {
+        return lastModified;
+    }
+
+    public Entry get(String path) {
+        return entries.get(path);
+    }
+
+    public Collection<String> getPaths() {
+        return entries.keySet();
+    }
+
+    public Map<String, Entry> getEntries() {
+        return entries;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Entry of the tree : a blob with its mode and its size.
+     */
+    public static class Entry {
+
+        private final ObjectId blobId;
+
+        private final FileMode fileMode;
+
+        private final long size;
+
+        public Entry(ObjectId blobId, FileMode fileMode, long size) {
+            this.blobId = blobId;
+            this.fileMode = fileMode;
+            this.size = size;
+        }
+
+        public ObjectId getBlobId() {
+            return blobId;
+        }
+
+        public FileMode getFileMode() {
+            return fileMode;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.git;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * LRU cache of the tree indexes of a repository, keyed by commit id.
+ * The cache is bounded by the total number of entries of the indexes it keeps.
+ * @author Florent Benoit
+ */
+public class GitTreeIndexCache {
+
+    /**
+     * Default maximum number of entries kept by all the indexes.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 200000;
+
+    private final Repository repository;
+
+    private final int maxEntries;
+
+    /**
+     * Indexes in access order, the eldest being the least recently used.
+     */
+    private final LinkedHashMap<ObjectId, GitTreeIndex> indexes;
+
+    private int entries = 0;
+
+    public GitTreeIndexCache(Repository repository) {
+        this(repository, DEFAULT_MAX_ENTRIES);
+    }
+
+    public GitTreeIndexCache(Repository repository, int maxEntries) {
+        this.repository = repository;
+        this.maxEntries = maxEntries;
+        this.indexes = new LinkedHashMap<ObjectId, GitTreeIndex>(16, 0.75f, true);
+    }
+
+    /**
+     * Gets the index of the given commit, building it if it is not yet in the cache.
+     * @param commitId the id of the commit
+     * @return the index of its tree
+     * @throws IOException if the index can't be built
+     */
+    public GitTreeIndex get(ObjectId commitId) throws IOException {
+        GitTreeIndex index = getIfPresent(commitId);
+        if (index != null) {
+            return index;
+        }
+
+        // Build it outside of the lock, readers of other commits are not blocked
+        index = GitTreeIndex.build(repository, commitId);
+        return put(index);
+    }
+
+    public synchronized GitTreeIndex getIfPresent(ObjectId commitId) {
+        return indexes.get(commitId);
+    }
+
+    /**
+     * Adds an index to the cache. If an index was concurrently added for the same commit, the existing one is kept.
+     * @param index the index to add
+     * @return the index kept in the cache
+     */
+    public synchronized GitTreeIndex put(GitTreeIndex index) {
+        GitTreeIndex existing = indexes.get(index.getCommitId());
+        if (existing != null) {
+            return existing;
+        }
+        indexes.put(index.getCommitId(), index);
+        entries += index.size();
+        evict();
+        return index;
+    }
+
+    /**
+     * Removes the least recently used indexes until the bound is respected, the most recent one is always kept.
+     */
+    protected void evict() {
+        Iterator<Map.Entry<ObjectId, GitTreeIndex>> iterator = indexes.entrySet().iterator();
+        while (entries > maxEntries && indexes.size() > 1 && iterator.hasNext()) {
+            GitTreeIndex eldest = iterator.next().getValue();
+            entries -= eldest.size();
+            iterator.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        indexes.clear();
+        entries = 0;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+}
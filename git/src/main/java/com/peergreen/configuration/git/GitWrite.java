@@ -16,14 +16,16 @@
 
 package com.peergreen.configuration.git;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
 
-import org.eclipse.jgit.api.Status;
 import org.eclipse.jgit.api.TagCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.lib.Constants;
@@ -37,32 +39,128 @@ import com.peergreen.configuration.api.Version;
 import com.peergreen.configuration.api.Write;
 
 /**
- *
+ * Write session on a git repository.
+ * Changes are committed directly in the object database, the working tree of the repository is never used.
+ * Each session has its own head, published on its own reference with a compare-and-set :
+ * concurrent changes on a session are detected instead of being serialized by a lock. Changes pushed concurrently on
+ * a session are grouped in commits by its own pipeline, on the calling threads; sessions don't wait for each other.
+ * The last commit that can be redone is kept on a second reference of the session. Both references are deleted when
+ * the session is closed.
  * @author Florent Benoit
  */
 public class GitWrite extends GitRead implements Write {
 
-    //FIXME: add synchronize on it
-    private List<ObjectId> writeIdList;
+    /**
+     * Prefix of the references of the sessions.
+     */
+    public static final String R_SESSIONS = "refs/sessions/";
+
+    /**
+     * Name of the reference of the head, in the references of a session.
+     */
+    public static final String SESSION_HEAD = "head";
+
+    /**
+     * Name of the reference of the last commit that can be redone, in the references of a session.
+     */
+    public static final String SESSION_REDO = "redo";
+
+    /**
+     * Reference on which the head of this session is published.
+     */
+    private final String sessionRef;
+
+    /**
+     * Reference keeping the commits that can be redone, they are no longer reachable from the head.
+     */
+    private final String redoRef;
+
+    private volatile boolean closed = false;
+
+    /**
+     * Head and commits of the session, replaced as a whole on each change.
+     */
+    private final AtomicReference<SessionState> state;
+
+    /**
+     * Changes staged by the current batch, null if there is no batch. Guarded by the batch lock.
+     */
+    private Map<String, GitTreeIndex.Entry> batchChanges = null;
 
-    private ObjectId currentWriteId;
+    /**
+     * Lock for staging changes in the batch and for starting, committing or cancelling it.
+     */
+    private final Object batchLock = new Object();
 
-    private GitRead originalView = null;
+    /**
+     * Groups the changes pushed concurrently on this session.
+     */
+    private final GitCommitPipeline pipeline = new GitCommitPipeline(new GitCommitPipeline.Target() {
+        @Override
+        public ObjectId commit(Map<String, GitTreeIndex.Entry> changes, String message) throws RepositoryException {
+            return commitOnSession(changes, message);
+        }
+    });
 
 
     public GitWrite(GitRepository gitRepository, Version version) throws RepositoryException {
         super(gitRepository, version);
-        this.originalView = new GitRead(gitRepository, version);
-        this.writeIdList = new ArrayList<ObjectId>();
+        String session = R_SESSIONS + UUID.randomUUID().toString() + "/";
+        this.sessionRef = session + SESSION_HEAD;
+        this.redoRef = session + SESSION_REDO;
+        this.state = new AtomicReference<SessionState>(new SessionState(null, Collections.<ObjectId>emptyList(), -1));
     }
 
 
+    /**
+     * @return the head of the session or the version on which it is based if there were no changes
+     */
+    @Override
+    public ObjectId getObjectIdRevision() {
+        ObjectId head = state.get().head;
+        if (head != null) {
+            return head;
+        }
+        return getBaseObjectIdRevision();
+    }
+
+    /**
+     * @return the version on which this session is based
+     */
+    public ObjectId getBaseObjectIdRevision() {
+        return super.getObjectIdRevision();
+    }
+
+    public String getSessionRef() {
+        return sessionRef;
+    }
+
+    public String getRedoRef() {
+        return redoRef;
+    }
+
+    /**
+     * Closes this session: its references are deleted and it can no longer be changed.
+     * Changes that have not been tagged are lost.
+     * @throws RepositoryException if the references can't be deleted
+     */
+    public void close() throws RepositoryException {
+        closed = true;
+        getGitManager().deleteRef(sessionRef);
+        getGitManager().deleteRef(redoRef);
+    }
 
+    public boolean isClosed() {
+        return closed;
+    }
 
 
     @Override
     public void tag(Version version) throws RepositoryException {
+        check();
+        checkNoBatch();
 
+        ObjectId currentWriteId = state.get().head;
         if (currentWriteId == null) {
             throw new RepositoryException("Cannot tag a version, there were no changes");
         }
@@ -85,6 +183,7 @@ public class GitWrite extends GitRead implements Write {
             revWalk.dispose();
         }
 
+        // Creation of the tag fails if it has been concurrently created
         TagCommand tagCommand = getGitManager().git().tag().setObjectId(revCommit).setName(version.getName());
         try {
             tagCommand.call();
@@ -92,23 +191,63 @@ public class GitWrite extends GitRead implements Write {
             throw new RepositoryException("Unable to set the production version with name '" + version.getName() + "'", e);
         }
 
+        getGitRepository().notifyChanges();
+
     }
 
 
-    protected void update(ObjectId newId) {
-        // currentID available ? needs to reset the list after this commit.
-        if (currentWriteId != null) {
-            int toIndex = writeIdList.indexOf(currentWriteId);
-            this.writeIdList = writeIdList.subList(0, toIndex + 1);
+    /**
+     * Publishes a new state of the session.
+     * The reference of the session is moved only if it is still on the head of the expected state, then the
+     * state is replaced only if no other change has been published in the meantime.
+     * @param expected the state on which the change has been computed
+     * @param newState the new state
+     * @throws RepositoryException if the session has been concurrently modified
+     */
+    protected void publish(SessionState expected, SessionState newState) throws RepositoryException {
+        if (!tryPublish(expected, newState)) {
+            throw new RepositoryException("The session '" + sessionRef + "' has been concurrently modified");
         }
+    }
 
-
-
-        setObjectIdRevision(newId);
-        this.currentWriteId = newId;
-        this.writeIdList.add(newId);
+    /**
+     * Publishes a new state of the session, see {@link #publish(SessionState, SessionState)}.
+     * @return false if the session has been concurrently modified, the change has to be computed again
+     * @throws RepositoryException if the session, its access or the repository is closed
+     */
+    protected boolean tryPublish(SessionState expected, SessionState newState) throws RepositoryException {
+        if (closed) {
+            throw new RepositoryException("The session '" + sessionRef + "' is closed");
+        }
+        check();
+        if (!getGitManager().compareAndSetRef(sessionRef, expected.head, newState.head)) {
+            return false;
+        }
+        if (!state.compareAndSet(expected, newState)) {
+            // Another change published the same head in the meantime, restore its value on the reference
+            ObjectId concurrentHead = state.get().head;
+            if (concurrentHead != null) {
+                getGitManager().compareAndSetRef(sessionRef, newState.head, concurrentHead);
+            }
+            return false;
+        }
+        updateRedoRef();
+        return true;
     }
 
+    /**
+     * Moves the redo reference to the last commit that can be redone in the current state, or deletes it.
+     * The commits before it are its ancestors so they are all kept.
+     */
+    protected synchronized void updateRedoRef() throws RepositoryException {
+        SessionState current = state.get();
+        int last = current.commits.size() - 1;
+        if (current.current >= 0 && current.current < last) {
+            getGitManager().updateRef(redoRef, current.commits.get(last));
+        } else {
+            getGitManager().deleteRef(redoRef);
+        }
+    }
 
 
     @Override
@@ -117,80 +256,62 @@ public class GitWrite extends GitRead implements Write {
             throw new RepositoryException("Cannot push an entry with a null path");
         }
 
-        final String filePattern = getFilePattern(path);
-
-        checkoutCurrentVersion();
-        try {
-            getGitManager().git().rm().addFilepattern(filePattern).call();
-        } catch (GitAPIException e) {
-            throw new RepositoryException("Cannot remove resource with the path '" + path + "'.", e);
-        }
+        String gitPath = checkAndGetGitPath(path);
 
-        commit(filePattern, "Remove the selected file '" + filePattern + "'.");
+        Map<String, GitTreeIndex.Entry> changes = Collections.singletonMap(gitPath, null);
+        commitChanges(changes, "Remove the selected file '" + gitPath + "'.");
     }
 
 
-    protected void checkoutCurrentVersion() throws RepositoryException {
-        // if already stored something, reuse previous id
-        ObjectId objectId = null;
-        if (currentWriteId == null) {
-
-        // get id from version
-            objectId = getObjectIdRevision();
-        } else {
-            objectId = currentWriteId;
-        }
-
-        // get commit for this version
-        RevCommit revCommitCheckout = getGitManager().getCommitForId(objectId);
-
-        // Checkout the wanted version
-        try {
-            getGitManager().git().branchCreate().setStartPoint(revCommitCheckout).setForce(true).setName("master").call();
-        } catch (GitAPIException e) {
-            throw new RepositoryException("Cannot checkout the current version as master", e);
-        }
-
-
-        try {
-            getGitManager().git().checkout().setName("master").call();
-        } catch (GitAPIException e) {
-            throw new RepositoryException("Cannot checkout the current version as master", e);
+    /**
+     * Commits the given changes on top of the current head of the session.
+     * They are committed by the pipeline of this session on the calling thread, changes submitted concurrently on this
+     * session are grouped in a single commit.
+     * @param changes the new entry for each changed path, a null entry removes the path
+     * @param message the message of the commit
+     */
+    protected void commitChanges(Map<String, GitTreeIndex.Entry> changes, String message) throws RepositoryException {
+        // In a batch, the changes are only staged
+        synchronized (batchLock) {
+            if (batchChanges != null) {
+                batchChanges.putAll(changes);
+                return;
+            }
         }
 
+        pipeline.commit(changes, message);
     }
 
+    /**
+     * Commits the given changes on top of the current head of the session, called by the commit pipeline.
+     * The head is moved with a compare-and-set, the commit is done again if the head has been moved in the meantime.
+     * @param changes the new entry for each changed path, a null entry removes the path
+     * @param message the message of the commit
+     * @return the new head of the session
+     */
+    protected ObjectId commitOnSession(Map<String, GitTreeIndex.Entry> changes, String message) throws RepositoryException {
+        for (int attempt = 0; attempt < GitManager.REF_UPDATE_ATTEMPTS; attempt++) {
+            SessionState current = state.get();
+            ObjectId parentId = current.head;
+            if (parentId == null) {
+                parentId = getBaseObjectIdRevision();
+            }
+            ObjectId newId = getGitManager().commit(parentId, changes, message);
 
-    protected void commit(String filePattern, String message) throws RepositoryException {
-
-        // check if there are changes ?
-        Status status = null;
-        try {
-            status = getGitManager().git().status().call();
-        } catch (GitAPIException e) {
-            throw new RepositoryException("Cannot commit the file pattern '" + filePattern + "' with message '" + message + ".", e);
-        }
-
-        // no changes, so do not commit
-        if (status.isClean()) {
-            return;
-        }
+            // no changes, so do not commit
+            if (newId == null) {
+                return parentId;
+            }
 
-        // Commit it
-        RevCommit revCommit = null;
-        try {
-            revCommit = getGitManager().git().commit()
-            .setCommitter("Peergreen Config Repository", "configrepository@peergreen.com")
-            .setMessage(message)
-            .setOnly(filePattern)
-            .call();
-        } catch (GitAPIException e) {
-            throw new RepositoryException("Cannot commit the file pattern '" + filePattern + "' with message '" + message + ".", e);
+            // New commit after the current one, the commits that could be redone are lost
+            List<ObjectId> commits = new ArrayList<ObjectId>(current.commits.subList(0, current.current + 1));
+            commits.add(newId);
+            if (tryPublish(current, new SessionState(newId, commits, commits.size() - 1))) {
+                return newId;
+            }
+            // Head moved by an undo, a redo or a reset in the meantime, commit again on the new head
         }
-
-        // Update the writeId
-        update(revCommit.getId());
-
+        throw new RepositoryException("The session '" + sessionRef + "' is concurrently modified, the changes can't be committed");
     }
 
 
@@ -200,132 +321,83 @@ public class GitWrite extends GitRead implements Write {
             throw new RepositoryException("Cannot push an entry with a null path");
         }
 
-            if (resource == null) {
-                throw new RepositoryException("Cannot push to the path '" + path + "' with a null resource.");
-            }
-
-        final String filePattern = getFilePattern(path);
-
-        checkoutCurrentVersion();
-
-
-        // Dump the content
-        InputStream inputStream = resource.openStream();
+        if (resource == null) {
+            throw new RepositoryException("Cannot push to the path '" + path + "' with a null resource.");
+        }
 
         // Check resource is not in upper/outside directories
-        File writingFile = checkAndGetResourceFile(path);
+        String gitPath = checkAndGetGitPath(path);
 
-        dumpFile(inputStream, writingFile);
-        try {
-            inputStream.close();
-        } catch (IOException e) {
-            throw new RepositoryException("Cannot write the stream in the file '" + filePattern + "'", e);
-        }
+        // Insert the content
+        GitTreeIndex.Entry entry = getGitManager().insertBlob(resource);
 
-        //TODO : check if in the path before adding ?
-        // Add to the index if not yet existing
-        try {
-            getGitManager().git().add().addFilepattern(filePattern).call();
-        } catch (GitAPIException e) {
-            throw new RepositoryException("Cannot push entry with the pattern '" + filePattern + "'", e);
-        }
+        commitChanges(Collections.singletonMap(gitPath, entry), "New content for '" + gitPath + "'.");
 
+    }
 
-        commit(filePattern, "New content for '" + filePattern + "'.");
 
+    @Override
+    public void importArchive(InputStream input) throws RepositoryException {
+        importArchive(input, null);
     }
 
 
-    /**
-     * Size of the buffer.
-     */
-    private static final int BUFFER_SIZE = 4096;
-
-    //FIXME : Replace with fileutils
-    protected void dumpFile(InputStream inputStream, File file) {
+    @Override
+    public void importArchive(InputStream input, Version version) throws RepositoryException {
+        if (input == null) {
+            throw new RepositoryException("Cannot import an archive from a null stream");
+        }
+        check();
 
-        file.getParentFile().mkdirs();
+        // All the blobs are inserted first, then a single tree and commit are built
+        Map<String, GitTreeIndex.Entry> changes = getGitManager().insertArchive(input);
+        if (!changes.isEmpty()) {
+            commitChanges(changes, "Import of " + changes.size() + " files.");
+        }
 
-        // File output
-        FileOutputStream out = null;
-        try {
-          out = new FileOutputStream(file);
-        int n = 0;
-            // buffer
-            byte[] buffer = new byte[BUFFER_SIZE];
-            n = inputStream.read(buffer);
-            while (n > 0) {
-                out.write(buffer, 0, n);
-                n = inputStream.read(buffer);
-            }
-            // Flush
-            out.flush();
-        } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        } finally {
-            try {
-                out.close();
-            } catch (IOException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
-            }
+        if (version != null) {
+            tag(version);
         }
     }
 
 
-
-
     @Override
     public void resetChanges(String path) throws RepositoryException {
 
-        final String filePattern = getFilePattern(path);
-
-        // get commit for the production version on which we're based
-        ObjectId objectId = originalView.getObjectIdRevision();//getGitManager().getObjectidForVersion(getVersion());
-        RevCommit revCommitCheckout = getGitManager().getCommitForId(objectId);
+        String gitPath = checkAndGetGitPath(path);
 
+        // get the entry in the version on which we're based, missing entries are removed
+        GitTreeIndex originalIndex = getGitManager().getTreeIndex(getBaseObjectIdRevision());
+        GitTreeIndex.Entry originalEntry = originalIndex.get(gitPath);
 
-        // we will perform a checkout only for a given path
-        try {
-            getGitManager().git().checkout().setStartPoint(revCommitCheckout).addPath(filePattern).call();
-        } catch (GitAPIException e) {
-            throw new RepositoryException("Cannot reset changes on the pattern path '" + filePattern + "'", e);
-        }
-
-
-        commit(filePattern, "reset changes on the file '" + filePattern + "'.");
+        commitChanges(Collections.singletonMap(gitPath, originalEntry), "reset changes on the file '" + gitPath + "'.");
     }
 
 
     @Override
     public void resetChanges() throws RepositoryException {
-        // Cancel all changes
-        currentWriteId = originalView.getObjectIdRevision();//getGitManager().getObjectidForVersion(getVersion());
-        setObjectIdRevision(currentWriteId);
-        writeIdList.clear();
-        // go back to the production version of our origin
-        checkoutCurrentVersion();
+        check();
+        checkNoBatch();
+        // Cancel all changes and go back to the version of our origin
+        SessionState current = state.get();
+        publish(current, new SessionState(getBaseObjectIdRevision(), Collections.<ObjectId>emptyList(), -1));
     }
 
 
     @Override
     public boolean isUndoable() {
-        return currentWriteId != null && writeIdList.size() > 0 && writeIdList.indexOf(currentWriteId) > 0;
+        return state.get().current > 0;
     }
 
 
     @Override
     public boolean undo() throws RepositoryException {
-        if( isUndoable()) {
-            int currentIndex =  writeIdList.indexOf(currentWriteId);
-            currentIndex--;
-            if (currentIndex < 0) {
-                throw new IllegalStateException("External access already undo operations");
-            }
-            currentWriteId = writeIdList.get(currentIndex);
-            setObjectIdRevision(currentWriteId);
-            checkoutCurrentVersion();
+        check();
+        checkNoBatch();
+        SessionState current = state.get();
+        if (current.current > 0) {
+            int currentIndex = current.current - 1;
+            publish(current, new SessionState(current.commits.get(currentIndex), current.commits, currentIndex));
             return true;
         }
         return false;
@@ -334,15 +406,12 @@ public class GitWrite extends GitRead implements Write {
 
     @Override
     public boolean redo() throws RepositoryException {
-        if(isRedoable()) {
-            int currentIndex =  writeIdList.indexOf(currentWriteId);
-            currentIndex++;
-            if (currentIndex > writeIdList.size() - 1) {
-                throw new IllegalStateException("External access already redo operations");
-            }
-            currentWriteId = writeIdList.get(currentIndex);
-            setObjectIdRevision(currentWriteId);
-            checkoutCurrentVersion();
+        check();
+        checkNoBatch();
+        SessionState current = state.get();
+        if (current.current >= 0 && current.current < current.commits.size() - 1) {
+            int currentIndex = current.current + 1;
+            publish(current, new SessionState(current.commits.get(currentIndex), current.commits, currentIndex));
             return true;
         }
         return false;
@@ -351,7 +420,95 @@ public class GitWrite extends GitRead implements Write {
 
     @Override
     public boolean isRedoable() {
-        return currentWriteId != null && writeIdList.size() > 0 && (writeIdList.indexOf(currentWriteId) < writeIdList.size() - 1);
+        SessionState current = state.get();
+        return current.current >= 0 && current.current < current.commits.size() - 1;
+    }
+
+
+    @Override
+    public void beginBatch() throws RepositoryException {
+        check();
+        synchronized (batchLock) {
+            if (batchChanges != null) {
+                throw new RepositoryException("A batch is in progress, it needs to be committed or cancelled first");
+            }
+            batchChanges = new LinkedHashMap<String, GitTreeIndex.Entry>();
+        }
+    }
+
+
+    @Override
+    public void commitBatch() throws RepositoryException {
+        check();
+        // Once the batch is ended, no change can be staged in it
+        Map<String, GitTreeIndex.Entry> changes;
+        synchronized (batchLock) {
+            changes = batchChanges;
+            if (changes == null) {
+                throw new RepositoryException("Cannot commit a batch, no batch has been started");
+            }
+            batchChanges = null;
+        }
+
+        // All the staged changes in a single commit
+        if (!changes.isEmpty()) {
+            commitChanges(changes, "Batch of " + changes.size() + " changes.");
+        }
+    }
+
+
+    @Override
+    public void cancelBatch() throws RepositoryException {
+        // Inserted blobs are not referenced and will be pruned
+        synchronized (batchLock) {
+            if (batchChanges == null) {
+                throw new RepositoryException("Cannot cancel a batch, no batch has been started");
+            }
+            batchChanges = null;
+        }
+    }
+
+
+    @Override
+    public boolean isInBatch() {
+        synchronized (batchLock) {
+            return batchChanges != null;
+        }
+    }
+
+
+    protected void checkNoBatch() throws RepositoryException {
+        if (isInBatch()) {
+            throw new RepositoryException("A batch is in progress, it needs to be committed or cancelled first");
+        }
+    }
+
+
+    /**
+     * Immutable state of a session.
+     */
+    protected static class SessionState {
+
+        /**
+         * Current commit of the session, null if there were no changes.
+         */
+        private final ObjectId head;
+
+        /**
+         * Commits that can be undone or redone.
+         */
+        private final List<ObjectId> commits;
+
+        /**
+         * Index of the head in the commits, -1 if the head is not one of them.
+         */
+        private final int current;
+
+        public SessionState(ObjectId head, List<ObjectId> commits, int current) {
+            this.head = head;
+            this.commits = commits;
+            this.current = current;
+        }
     }
 
 
@@ -0,0 +1,179 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.git.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.util.UUID;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.peergreen.configuration.api.RepositoryException;
+import com.peergreen.configuration.api.test.DummyContentResource;
+import com.peergreen.configuration.git.GitBlobCache;
+import com.peergreen.configuration.git.GitConfiguration;
+import com.peergreen.configuration.git.GitManager;
+import com.peergreen.configuration.git.GitRepository;
+import com.peergreen.configuration.git.GitRepositoryAccess;
+
+/**
+ * Check the cache of the contents of the blobs.
+ * @author Florent Benoit
+ */
+@Test
+public class TestGitBlobCache {
+
+    /**
+     * Size of the small contents: "content of blob-0".
+     */
+    private static final int SIZE = 17;
+
+    private final GitConfiguration configuration;
+
+    private final GitManager gitManager;
+
+    private final ObjectId[] blobs = new ObjectId[3];
+
+    private ObjectId largeBlob;
+
+    public TestGitBlobCache() throws RepositoryException {
+        // New repository for each run
+        this.configuration = new GitConfiguration();
+        configuration.setRootDirectory(new File("target", TestGitBlobCache.class.getName() + "-" + UUID.randomUUID()));
+        this.gitManager = ((GitRepositoryAccess) configuration.getRepository("blobs")).getGitRepository().getGitManager();
+    }
+
+    @Test
+    public void populate() throws RepositoryException {
+        for (int i = 0; i < blobs.length; i++) {
+            blobs[i] = gitManager.insertBlob(new DummyContentResource("content of blob-" + i)).getBlobId();
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append("content of the large blob ");
+        }
+        largeBlob = gitManager.insertBlob(new DummyContentResource(sb.toString())).getBlobId();
+    }
+
+    @Test(dependsOnMethods="populate")
+    public void hitAndMiss() throws IOException {
+        GitBlobCache cache = new GitBlobCache(gitManager.repository(), 10 * SIZE, 100);
+        Assert.assertNull(cache.get(blobs[0]));
+        Assert.assertEquals(read(cache.openStream(blobs[0])), "content of blob-0");
+        Assert.assertEquals(cache.getMissCount(), 1);
+        Assert.assertEquals(cache.getHitCount(), 0);
+        Assert.assertEquals(cache.getHeapBytes(), SIZE);
+
+        // Served from the cache by all the accessors
+        Assert.assertEquals(read(cache.openStream(blobs[0])), "content of blob-0");
+        Assert.assertEquals(read(Channels.newInputStream(cache.openChannel(blobs[0]))), "content of blob-0");
+        Assert.assertEquals(cache.getBuffer(blobs[0]).remaining(), SIZE);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Assert.assertEquals(cache.transferTo(blobs[0], Channels.newChannel(output)), SIZE);
+        Assert.assertEquals(output.toString(), "content of blob-0");
+        Assert.assertEquals(cache.getMissCount(), 1);
+        Assert.assertEquals(cache.getHitCount(), 4);
+    }
+
+    @Test(dependsOnMethods="populate")
+    public void largeBlob() throws IOException {
+        GitBlobCache cache = new GitBlobCache(gitManager.repository(), 10 * SIZE, 100);
+        String content = read(cache.openStream(largeBlob));
+        Assert.assertTrue(content.startsWith("content of the large blob"));
+        Assert.assertEquals(cache.getBuffer(largeBlob).remaining(), content.length());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Assert.assertEquals(cache.transferTo(largeBlob, Channels.newChannel(output)), content.length());
+        Assert.assertEquals(output.toString(), content);
+
+        // Never cached, neither a hit nor a miss
+        Assert.assertNull(cache.get(largeBlob));
+        Assert.assertEquals(cache.getHeapBytes(), 0);
+        Assert.assertEquals(cache.getMissCount(), 0);
+        Assert.assertEquals(cache.getHitCount(), 0);
+    }
+
+    @Test(dependsOnMethods="populate")
+    public void eviction() throws IOException {
+        // Room for two contents
+        GitBlobCache cache = new GitBlobCache(gitManager.repository(), 2 * SIZE, 100);
+        read(cache.openStream(blobs[0]));
+        read(cache.openStream(blobs[1]));
+        read(cache.openStream(blobs[0]));
+        read(cache.openStream(blobs[2]));
+
+        // Least recently used content is evicted
+        Assert.assertNull(cache.get(blobs[1]));
+        Assert.assertNotNull(cache.get(blobs[0]));
+        Assert.assertNotNull(cache.get(blobs[2]));
+        Assert.assertEquals(cache.getHeapBytes(), 2 * SIZE);
+        Assert.assertEquals(cache.getOffHeapBytes(), 0);
+
+        // Read again from the repository
+        Assert.assertEquals(read(cache.openStream(blobs[1])), "content of blob-1");
+        Assert.assertEquals(cache.getMissCount(), 4);
+    }
+
+    @Test(dependsOnMethods="populate")
+    public void offHeap() throws IOException {
+        GitBlobCache cache = new GitBlobCache(gitManager.repository(), SIZE, 100);
+        cache.setMaxOffHeapBytes(SIZE);
+        read(cache.openStream(blobs[0]));
+        read(cache.openStream(blobs[1]));
+
+        // Evicted from the heap to the direct buffers
+        Assert.assertEquals(cache.getHeapBytes(), SIZE);
+        Assert.assertEquals(cache.getOffHeapBytes(), SIZE);
+        Assert.assertEquals(read(cache.openStream(blobs[0])), "content of blob-0");
+        Assert.assertEquals(cache.getHitCount(), 1);
+
+        // Tier disabled
+        cache.setMaxOffHeapBytes(0);
+        Assert.assertEquals(cache.getOffHeapBytes(), 0);
+        Assert.assertNull(cache.get(blobs[0]));
+    }
+
+    @Test
+    public void offHeapConfiguration() throws RepositoryException {
+        GitConfiguration configuration = new GitConfiguration();
+        configuration.setRootDirectory(new File("target", TestGitBlobCache.class.getName() + "-" + UUID.randomUUID()));
+        configuration.setBlobCacheOffHeapBytes(1024);
+        GitRepository repository = ((GitRepositoryAccess) configuration.getRepository("offheap")).getGitRepository();
+        Assert.assertEquals(repository.getGitManager().blobCache().getMaxOffHeapBytes(), 1024);
+
+        // Applied to the opened repositories
+        configuration.setBlobCacheOffHeapBytes(0);
+        Assert.assertEquals(repository.getGitManager().blobCache().getMaxOffHeapBytes(), 0);
+    }
+
+    protected String read(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int n = inputStream.read(buffer);
+        while (n != -1) {
+            output.write(buffer, 0, n);
+            n = inputStream.read(buffer);
+        }
+        inputStream.close();
+        return output.toString();
+    }
+
+}
@@ -0,0 +1,358 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.git.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.peergreen.configuration.api.RepositoryException;
+import com.peergreen.configuration.api.Write;
+import com.peergreen.configuration.api.test.DummyContentResource;
+import com.peergreen.configuration.git.GitCommitPipeline;
+import com.peergreen.configuration.git.GitConfiguration;
+import com.peergreen.configuration.git.GitRepository;
+import com.peergreen.configuration.git.GitRepositoryAccess;
+import com.peergreen.configuration.git.GitTreeIndex;
+import com.peergreen.configuration.git.GitWrite;
+
+/**
+ * Check the grouping in commits of the changes pushed concurrently on a write session.
+ * @author Florent Benoit
+ */
+@Test
+public class TestGitCommitPipeline {
+
+    private final GitRepository repository;
+
+    public TestGitCommitPipeline() throws RepositoryException {
+        // New repository for each run
+        GitConfiguration configuration = new GitConfiguration();
+        configuration.setRootDirectory(new File("target", TestGitCommitPipeline.class.getName() + "-" + UUID.randomUUID()));
+        this.repository = ((GitRepositoryAccess) configuration.getRepository("pipeline")).getGitRepository();
+    }
+
+    @Test
+    public void grouping() throws Exception {
+        BlockingWrite write = new BlockingWrite(repository);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            // The first change is committed alone, the changes queued meanwhile are grouped in the next commit
+            List<Future<Void>> futures = write.pushBlocked(executor, "grouping/file0.xml", "grouping/file1.xml", "grouping/file2.xml",
+                    "grouping/file3.xml", "grouping/file4.xml");
+            write.awaitQueued(4);
+            write.unblock();
+            for (Future<Void> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(write.groups, toList(1, 4));
+        Assert.assertEquals(repository.getGitManager().getCommitForId(write.getObjectIdRevision()).getShortMessage(), "Group of 4 changes.");
+        for (int i = 0; i < 5; i++) {
+            Assert.assertNotNull(write.getResource("grouping/file" + i + ".xml"));
+        }
+
+        // One commit for each group
+        Assert.assertTrue(write.undo());
+        Assert.assertFalse(write.isUndoable());
+        Assert.assertNotNull(write.getResource("grouping/file0.xml"));
+        Assert.assertNull(write.getResource("grouping/file1.xml"));
+    }
+
+    @Test
+    public void failingChange() throws Exception {
+        BlockingWrite write = new BlockingWrite(repository);
+        write.pushResource("failing/file.xml", new DummyContentResource("file"));
+        write.pushResource("failing/removed.xml", new DummyContentResource("removed"));
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            // A file below another file makes the group fail, the other changes of the group are committed one by one
+            List<Future<Void>> futures = write.pushBlocked(executor, "failing/first.xml", "failing/valid.xml", "failing/file.xml/entry.xml");
+            Future<Void> removal = executor.submit(write.remove("failing/removed.xml"));
+            write.awaitQueued(3);
+            write.unblock();
+
+            futures.get(0).get(10, TimeUnit.SECONDS);
+            futures.get(1).get(10, TimeUnit.SECONDS);
+            removal.get(10, TimeUnit.SECONDS);
+            try {
+                futures.get(2).get(10, TimeUnit.SECONDS);
+                Assert.fail("The conflicting change shouldn't be committed");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof RepositoryException);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(write.groups, toList(1, 1, 1, 3, 1, 1, 1));
+        Assert.assertNotNull(write.getResource("failing/valid.xml"));
+        Assert.assertNotNull(write.getResource("failing/file.xml"));
+        Assert.assertNull(write.getResource("failing/removed.xml"));
+    }
+
+    @Test
+    public void independentSessions() throws Exception {
+        BlockingWrite blocked = new BlockingWrite(repository);
+        Write other = repository.init();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            // A session doesn't wait for the commit of another one
+            List<Future<Void>> futures = blocked.pushBlocked(executor, "blocked/file.xml");
+            other.pushResource("other/file.xml", new DummyContentResource("other"));
+            Assert.assertNotNull(other.getResource("other/file.xml"));
+            Assert.assertFalse(futures.get(0).isDone());
+
+            blocked.unblock();
+            futures.get(0).get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertNull(blocked.getResource("other/file.xml"));
+        Assert.assertNull(other.getResource("blocked/file.xml"));
+    }
+
+    @Test
+    public void headMovedWhileCommitting() throws RepositoryException {
+        final AtomicInteger publishes = new AtomicInteger();
+        final GitWrite write = new GitWrite(repository, null) {
+            @Override
+            protected boolean tryPublish(SessionState expected, SessionState newState) throws RepositoryException {
+                // Undo published between the commit and its publication
+                if (publishes.incrementAndGet() == 3) {
+                    undo();
+                }
+                return super.tryPublish(expected, newState);
+            }
+        };
+        write.pushResource("moved/file1.xml", new DummyContentResource("file1"));
+        write.pushResource("moved/file2.xml", new DummyContentResource("file2"));
+
+        // The change is committed again on the new head
+        write.pushResource("moved/file3.xml", new DummyContentResource("file3"));
+        Assert.assertEquals(publishes.get(), 5);
+        Assert.assertNotNull(write.getResource("moved/file1.xml"));
+        Assert.assertNull(write.getResource("moved/file2.xml"));
+        Assert.assertNotNull(write.getResource("moved/file3.xml"));
+    }
+
+    @Test
+    public void maxBatchSize() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final List<Integer> groups = new CopyOnWriteArrayList<Integer>();
+        final GitCommitPipeline pipeline = new GitCommitPipeline(new GitCommitPipeline.Target() {
+            @Override
+            public ObjectId commit(Map<String, GitTreeIndex.Entry> changes, String message) throws RepositoryException {
+                try {
+                    blocked.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                groups.add(Integer.valueOf(changes.size()));
+                return ObjectId.zeroId();
+            }
+        }, 2, GitCommitPipeline.DEFAULT_WINDOW);
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            List<Future<ObjectId>> futures = new ArrayList<Future<ObjectId>>();
+            List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(commit(pipeline, "batch/file" + i + ".xml", threads)));
+                // Queued in order
+                awaitBlocked(threads, i);
+            }
+            blocked.countDown();
+            for (Future<ObjectId> future : futures) {
+                Assert.assertEquals(future.get(10, TimeUnit.SECONDS), ObjectId.zeroId());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(groups, toList(1, 2, 1));
+    }
+
+    @Test
+    public void concurrentSessionWrites() throws Exception {
+        // Concurrent changes on a session are grouped instead of failing
+        final Write write = repository.init();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < 32; i++) {
+                final String path = "session/file" + i + ".xml";
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws RepositoryException {
+                        write.pushResource(path, new DummyContentResource("content of " + path));
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        for (int i = 0; i < 32; i++) {
+            Assert.assertNotNull(write.getResource("session/file" + i + ".xml"));
+        }
+    }
+
+    protected Callable<ObjectId> commit(final GitCommitPipeline pipeline, final String path, final List<Thread> threads) {
+        return new Callable<ObjectId>() {
+            @Override
+            public ObjectId call() throws RepositoryException {
+                threads.add(Thread.currentThread());
+                return pipeline.commit(Collections.<String, GitTreeIndex.Entry>singletonMap(path, null), path);
+            }
+        };
+    }
+
+    /**
+     * Waits until the given threads, except the first one committing, are blocked on the lock of the pipeline.
+     * Their changes are queued before they wait for the lock.
+     */
+    protected static void awaitBlocked(List<Thread> threads, int count) throws InterruptedException {
+        long end = System.currentTimeMillis() + 10000L;
+        while (System.currentTimeMillis() < end) {
+            int blocked = 0;
+            for (Thread thread : threads) {
+                if (thread.getState() == Thread.State.BLOCKED) {
+                    blocked++;
+                }
+            }
+            if (blocked >= count) {
+                return;
+            }
+            Thread.sleep(10L);
+        }
+        Assert.fail("The changes have not been queued");
+    }
+
+    protected static List<Integer> toList(Integer... values) {
+        List<Integer> list = new ArrayList<Integer>();
+        for (Integer value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    /**
+     * Session whose first commit waits to be released, so that the next changes are queued meanwhile.
+     */
+    private static class BlockingWrite extends GitWrite {
+
+        private final CountDownLatch committing = new CountDownLatch(1);
+
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        private final List<Integer> groups = new CopyOnWriteArrayList<Integer>();
+
+        private final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+
+        private volatile boolean blocking = false;
+
+        public BlockingWrite(GitRepository repository) throws RepositoryException {
+            super(repository, null);
+        }
+
+        /**
+         * Pushes the first path, then the other ones once the first one is being committed.
+         */
+        public List<Future<Void>> pushBlocked(ExecutorService executor, String... paths) throws InterruptedException {
+            blocking = true;
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (String path : paths) {
+                futures.add(executor.submit(push(path)));
+                if (futures.size() == 1) {
+                    awaitCommitting();
+                }
+            }
+            return futures;
+        }
+
+        protected Callable<Void> push(final String path) {
+            return new Callable<Void>() {
+                @Override
+                public Void call() throws RepositoryException {
+                    threads.add(Thread.currentThread());
+                    pushResource(path, new DummyContentResource("content of " + path));
+                    return null;
+                }
+            };
+        }
+
+        protected Callable<Void> remove(final String path) {
+            return new Callable<Void>() {
+                @Override
+                public Void call() throws RepositoryException {
+                    threads.add(Thread.currentThread());
+                    removeResource(path);
+                    return null;
+                }
+            };
+        }
+
+        @Override
+        protected ObjectId commitOnSession(Map<String, GitTreeIndex.Entry> changes, String message) throws RepositoryException {
+            groups.add(Integer.valueOf(changes.size()));
+            if (blocking) {
+                blocking = false;
+                committing.countDown();
+                try {
+                    released.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.commitOnSession(changes, message);
+        }
+
+        public void awaitCommitting() throws InterruptedException {
+            Assert.assertTrue(committing.await(10, TimeUnit.SECONDS));
+        }
+
+        public void awaitQueued(int count) throws InterruptedException {
+            awaitBlocked(threads, count);
+        }
+
+        public void unblock() {
+            released.countDown();
+        }
+    }
+
+}
@@ -40,6 +40,9 @@ public class TestGitConfiguration {
 
         lists.add(new TestConfiguration(configuration));
 
+        // Replication between two repositories
+        lists.add(new TestGitReplication());
+
         return lists.toArray(new Object[lists.size()]);
      }
 }
@@ -0,0 +1,76 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.git.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.peergreen.configuration.api.RepositoryException;
+import com.peergreen.configuration.api.test.DummyContentResource;
+import com.peergreen.configuration.git.GitConfiguration;
+import com.peergreen.configuration.git.GitMaintenance;
+import com.peergreen.configuration.git.GitMaintenanceReport;
+import com.peergreen.configuration.git.GitRepository;
+import com.peergreen.configuration.git.GitRepositoryAccess;
+import com.peergreen.configuration.git.GitWrite;
+
+/**
+ * Check the expiry of the sessions by the maintenance.
+ * @author Florent Benoit
+ */
+@Test
+public class TestGitMaintenance {
+
+    private final GitRepository repository;
+
+    public TestGitMaintenance() throws RepositoryException {
+        // New repository for each run
+        GitConfiguration configuration = new GitConfiguration();
+        configuration.setRootDirectory(new File("target", TestGitMaintenance.class.getName() + "-" + UUID.randomUUID()));
+        this.repository = ((GitRepositoryAccess) configuration.getRepository("maintenance")).getGitRepository();
+    }
+
+    @Test
+    public void expireSessions() throws RepositoryException, IOException {
+        GitWrite liveWrite = (GitWrite) repository.init();
+        liveWrite.pushResource("live.xml", new DummyContentResource("live"));
+
+        // Session of another process, only known by its reference
+        String abandonedRef = GitWrite.R_SESSIONS + UUID.randomUUID().toString() + "/" + GitWrite.SESSION_HEAD;
+        repository.getGitManager().updateRef(abandonedRef, liveWrite.getObjectIdRevision());
+
+        // Both heads are older than the expiry, commit times are in seconds so the expiry is in the future
+        GitMaintenance maintenance = repository.getMaintenance();
+        maintenance.setSessionExpiry(-2000);
+        GitMaintenanceReport report = maintenance.run(false);
+
+        // The opened session is kept
+        Assert.assertEquals(report.getExpiredSessions(), 1);
+        Assert.assertNull(repository.getGitManager().repository().getRef(abandonedRef));
+        Assert.assertNotNull(repository.getGitManager().repository().getRef(liveWrite.getSessionRef()));
+        liveWrite.pushResource("live2.xml", new DummyContentResource("live2"));
+
+        // Its references are deleted once closed
+        liveWrite.close();
+        Assert.assertNull(repository.getGitManager().repository().getRef(liveWrite.getSessionRef()));
+    }
+
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.git.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.peergreen.configuration.api.RepositoryException;
+import com.peergreen.configuration.api.Version;
+import com.peergreen.configuration.api.VersionedResource;
+import com.peergreen.configuration.api.test.DummyContentResource;
+import com.peergreen.configuration.git.GitConfiguration;
+import com.peergreen.configuration.git.GitManager;
+import com.peergreen.configuration.git.GitRepository;
+import com.peergreen.configuration.git.GitRepositoryAccess;
+import com.peergreen.configuration.git.GitTreeIndex;
+import com.peergreen.configuration.git.GitWrite;
+
+/**
+ * Check the checks done when inserting blobs and committing changes.
+ * @author Florent Benoit
+ */
+@Test
+public class TestGitManager {
+
+    private final GitManager gitManager;
+
+    private ObjectId base;
+
+    public TestGitManager() throws RepositoryException {
+        // New repository for each run
+        GitConfiguration configuration = new GitConfiguration();
+        configuration.setRootDirectory(new File("target", TestGitManager.class.getName() + "-" + UUID.randomUUID()));
+        GitRepository repository = ((GitRepositoryAccess) configuration.getRepository("manager")).getGitRepository();
+        this.gitManager = repository.getGitManager();
+
+        GitWrite write = (GitWrite) repository.init();
+        write.pushResource("directory/file.xml", new DummyContentResource("content"));
+        this.base = write.getObjectIdRevision();
+    }
+
+    @Test
+    public void insertSize() throws RepositoryException {
+        Assert.assertEquals(gitManager.insertBlob(new SizedResource("content", 7)).getSize(), 7);
+    }
+
+    @Test(expectedExceptions=RepositoryException.class)
+    public void insertSmallerSize() throws RepositoryException {
+        gitManager.insertBlob(new SizedResource("content", 3));
+    }
+
+    @Test(expectedExceptions=RepositoryException.class)
+    public void insertLargerSize() throws RepositoryException {
+        gitManager.insertBlob(new SizedResource("content", 10));
+    }
+
+    @Test(expectedExceptions=RepositoryException.class)
+    public void fileOverDirectory() throws RepositoryException {
+        gitManager.commit(base, changes("directory"), "file over directory");
+    }
+
+    @Test(expectedExceptions=RepositoryException.class)
+    public void directoryOverFile() throws RepositoryException {
+        gitManager.commit(base, changes("directory/file.xml/entry.xml"), "directory over file");
+    }
+
+    @Test(expectedExceptions=RepositoryException.class)
+    public void conflictInChanges() throws RepositoryException {
+        gitManager.commit(base, changes("other", "other/entry.xml"), "file and directory");
+    }
+
+    @Test
+    public void replaceDirectory() throws RepositoryException {
+        // The directory is removed in the same changes
+        Map<String, GitTreeIndex.Entry> changes = changes("directory");
+        changes.put("directory/file.xml", null);
+        ObjectId commitId = gitManager.commit(base, changes, "replace directory");
+        Assert.assertEquals(gitManager.getTreeIndex(commitId).getPaths().size(), 1);
+        Assert.assertNotNull(gitManager.getTreeIndex(commitId).get("directory"));
+    }
+
+    @Test
+    public void similarNames() throws RepositoryException {
+        // "directory-file" and "directory.xml" are sorted between "directory" and "directory/file.xml"
+        ObjectId commitId = gitManager.commit(base, changes("directory-file", "directory.xml"), "similar names");
+        Assert.assertEquals(gitManager.getTreeIndex(commitId).getPaths().size(), 3);
+    }
+
+    protected Map<String, GitTreeIndex.Entry> changes(String... paths) throws RepositoryException {
+        Map<String, GitTreeIndex.Entry> changes = new HashMap<String, GitTreeIndex.Entry>();
+        for (String path : paths) {
+            changes.put(path, gitManager.insertBlob(new DummyContentResource("content of " + path)));
+        }
+        return changes;
+    }
+
+    /**
+     * Resource with a declared size that may not be the size of its content.
+     */
+    private static class SizedResource implements VersionedResource {
+
+        private final byte[] content;
+
+        private final long size;
+
+        public SizedResource(String content, long size) {
+            this.content = content.getBytes();
+            this.size = size;
+        }
+
+        @Override
+        public InputStream openStream() {
+            return new ByteArrayInputStream(content);
+        }
+
+        @Override
+        public long lastModified() {
+            return 0;
+        }
+
+        @Override
+        public Version getVersion() {
+            return null;
+        }
+
+        @Override
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public ReadableByteChannel openChannel() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long transferTo(WritableByteChannel target) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ByteBuffer getByteBuffer() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.git.test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.peergreen.configuration.api.RepositoryException;
+import com.peergreen.configuration.api.Version;
+import com.peergreen.configuration.api.Write;
+import com.peergreen.configuration.api.test.DummyContentResource;
+import com.peergreen.configuration.api.test.DummyVersion;
+import com.peergreen.configuration.git.GitConfiguration;
+import com.peergreen.configuration.git.GitRepository;
+import com.peergreen.configuration.git.GitRepositoryAccess;
+
+/**
+ * Check the cache of the production version while it is switched.
+ * @author Florent Benoit
+ */
+@Test
+public class TestGitProduction {
+
+    private final GitRepository repository;
+
+    private final Version[] versions = new Version[2];
+
+    public TestGitProduction() throws RepositoryException {
+        // New repository for each run
+        GitConfiguration configuration = new GitConfiguration();
+        configuration.setRootDirectory(new File("target", TestGitProduction.class.getName() + "-" + UUID.randomUUID()));
+        this.repository = ((GitRepositoryAccess) configuration.getRepository("production")).getGitRepository();
+    }
+
+    @Test
+    public void populate() throws RepositoryException {
+        Write write = repository.init();
+        for (int i = 0; i < versions.length; i++) {
+            write.pushResource("version.xml", new DummyContentResource("version " + i));
+            versions[i] = new DummyVersion(UUID.randomUUID().toString());
+            write.tag(versions[i]);
+        }
+        Assert.assertNull(repository.getProductionVersion());
+    }
+
+    @Test(dependsOnMethods="populate")
+    public void switchProduction() throws Exception {
+        // Readers keep on resolving the production version while it is switched
+        final AtomicBoolean stopped = new AtomicBoolean(false);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Void>> readers = new ArrayList<Future<Void>>();
+        try {
+            for (int i = 0; i < 4; i++) {
+                readers.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws RepositoryException {
+                        while (!stopped.get()) {
+                            repository.getProductionVersion();
+                            repository.read();
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            // The switched version is read back right away
+            for (int i = 0; i < 100; i++) {
+                Version version = versions[i % versions.length];
+                repository.setProductionVersion(version);
+                Assert.assertEquals(repository.getProductionVersion().getName(), version.getName());
+                Assert.assertEquals(getContent(), "version " + (i % versions.length));
+            }
+        } finally {
+            stopped.set(true);
+            executor.shutdown();
+        }
+        for (Future<Void> reader : readers) {
+            reader.get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test(dependsOnMethods="switchProduction")
+    public void staleResolution() throws Exception {
+        // A reader resolves the production version, it is switched before the reader stores it
+        final AtomicBoolean pause = new AtomicBoolean(false);
+        final CountDownLatch resolved = new CountDownLatch(1);
+        final CountDownLatch switched = new CountDownLatch(1);
+        final GitRepository pausedRepository = new GitRepository(repository.getGitManager().repository()) {
+            @Override
+            protected Production resolveProduction(long generation) throws RepositoryException {
+                Production production = super.resolveProduction(generation);
+                if (pause.compareAndSet(true, false)) {
+                    resolved.countDown();
+                    try {
+                        switched.await();
+                    } catch (InterruptedException e) {
+                        throw new RepositoryException("Interrupted", e);
+                    }
+                }
+                return production;
+            }
+        };
+        pausedRepository.setProductionVersion(versions[0]);
+
+        pause.set(true);
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pausedRepository.getProductionVersion();
+                } catch (RepositoryException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        reader.start();
+        resolved.await();
+        pausedRepository.setProductionVersion(versions[1]);
+        switched.countDown();
+        reader.join();
+
+        // The version resolved by the reader is not used
+        Assert.assertEquals(pausedRepository.getProductionVersion().getName(), versions[1].getName());
+    }
+
+    protected String getContent() throws RepositoryException {
+        ByteBuffer buffer = repository.read().getResource("version.xml").getByteBuffer();
+        byte[] content = new byte[buffer.remaining()];
+        buffer.get(content);
+        return new String(content);
+    }
+
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.git.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.UUID;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.peergreen.configuration.api.RepositoryException;
+import com.peergreen.configuration.api.Version;
+import com.peergreen.configuration.api.Write;
+import com.peergreen.configuration.api.test.DummyContentResource;
+import com.peergreen.configuration.api.test.DummyVersion;
+import com.peergreen.configuration.git.GitConfiguration;
+import com.peergreen.configuration.git.GitReplicationReport;
+import com.peergreen.configuration.git.GitRepository;
+import com.peergreen.configuration.git.GitRepositoryAccess;
+
+/**
+ * Check the replication of the versions between the repositories of two nodes.
+ * @author Florent Benoit
+ */
+@Test
+public class TestGitReplication {
+
+    private final File rootDirectory;
+
+    private final GitRepository node1;
+
+    private final GitRepository node2;
+
+    /**
+     * Nodes having tagged the same version with different contents.
+     */
+    private final GitRepository node3;
+
+    private final GitRepository node4;
+
+    public TestGitReplication() throws RepositoryException {
+        // New repositories for each run
+        this.rootDirectory = new File("target", TestGitReplication.class.getName() + "-" + UUID.randomUUID());
+        GitConfiguration configuration = new GitConfiguration();
+        configuration.setRootDirectory(rootDirectory);
+        this.node1 = ((GitRepositoryAccess) configuration.getRepository("node1")).getGitRepository();
+        this.node2 = ((GitRepositoryAccess) configuration.getRepository("node2")).getGitRepository();
+        this.node3 = ((GitRepositoryAccess) configuration.getRepository("node3")).getGitRepository();
+        this.node4 = ((GitRepositoryAccess) configuration.getRepository("node4")).getGitRepository();
+    }
+
+    @Test
+    public void fetch() throws RepositoryException {
+        Version version = newVersion(node1, "datasources/db1.xml");
+        node1.setProductionVersion(version);
+
+        GitReplicationReport report = node2.getReplication().fetch(getRemote("node1"));
+        Assert.assertEquals(report.getVersions().size(), 1);
+        Assert.assertEquals(report.getVersions().get(0).getName(), version.getName());
+        Assert.assertTrue(report.getConflicts().isEmpty());
+        Assert.assertEquals(report.getProductionVersion().getName(), version.getName());
+        Assert.assertEquals(node2.getProductionVersion().getName(), version.getName());
+        Assert.assertEquals(node2.read(version).getResource("datasources/db1.xml").getSize(), "datasources/db1.xml".length());
+
+        // Nothing new
+        report = node2.getReplication().fetch(getRemote("node1"));
+        Assert.assertTrue(report.getVersions().isEmpty());
+        Assert.assertNull(report.getProductionVersion());
+    }
+
+    @Test(dependsOnMethods="fetch")
+    public void push() throws RepositoryException {
+        Version version = newVersion(node1, "datasources/db2.xml");
+        node1.setProductionVersion(version);
+
+        GitReplicationReport report = node1.getReplication().push(getRemote("node2"));
+        Assert.assertEquals(report.getVersions().size(), 1);
+        Assert.assertEquals(report.getVersions().get(0).getName(), version.getName());
+        Assert.assertEquals(report.getProductionVersion().getName(), version.getName());
+
+        // Switch done outside of the opened repository
+        node2.checkChanges();
+        Assert.assertEquals(node2.getProductionVersion().getName(), version.getName());
+        Assert.assertNotNull(node2.read().getResource("datasources/db2.xml"));
+    }
+
+    @Test(dependsOnMethods="push")
+    public void bundle() throws RepositoryException, IOException {
+        Version version = newVersion(node1, "datasources/db3.xml");
+        node1.setProductionVersion(version);
+
+        File bundle = new File(rootDirectory, "node1.bundle");
+        try (OutputStream outputStream = new FileOutputStream(bundle)) {
+            node1.getReplication().writeBundle(outputStream, node2.getVersions());
+        }
+
+        GitReplicationReport report = node2.getReplication().fetch(bundle.getAbsolutePath());
+        Assert.assertEquals(report.getVersions().size(), 1);
+        Assert.assertEquals(report.getVersions().get(0).getName(), version.getName());
+        Assert.assertEquals(node2.getProductionVersion().getName(), version.getName());
+        Assert.assertNotNull(node2.read().getResource("datasources/db3.xml"));
+    }
+
+    @Test
+    public void fetchConflict() throws RepositoryException {
+        Version version = new DummyVersion(UUID.randomUUID().toString());
+        newVersion(node3, "datasources/node3.xml", version);
+        newVersion(node4, "datasources/node4.xml", version);
+        node3.setProductionVersion(version);
+
+        // Reported, the local version and the production version are kept
+        GitReplicationReport report = node4.getReplication().fetch(getRemote("node3"));
+        Assert.assertTrue(report.getVersions().isEmpty());
+        Assert.assertEquals(report.getConflicts().size(), 1);
+        Assert.assertEquals(report.getConflicts().get(0).getName(), version.getName());
+        Assert.assertNull(report.getProductionVersion());
+        Assert.assertNull(node4.getProductionVersion());
+        Assert.assertNotNull(node4.read(version).getResource("datasources/node4.xml"));
+        Assert.assertNull(node4.read(version).getResource("datasources/node3.xml"));
+    }
+
+    @Test(dependsOnMethods="fetchConflict")
+    public void pushConflict() throws RepositoryException {
+        Version version = newVersion(node3, "datasources/node3-2.xml");
+
+        // Only the version without conflict is pushed
+        GitReplicationReport report = node3.getReplication().push(getRemote("node4"));
+        Assert.assertEquals(report.getVersions().size(), 1);
+        Assert.assertEquals(report.getVersions().get(0).getName(), version.getName());
+        Assert.assertEquals(report.getConflicts().size(), 1);
+        Assert.assertNull(report.getProductionVersion());
+        node4.checkChanges();
+        Assert.assertNull(node4.getProductionVersion());
+    }
+
+    @Test(expectedExceptions=RepositoryException.class)
+    public void pushNotLocal() throws RepositoryException {
+        node1.getReplication().push("git://localhost/node2");
+    }
+
+    protected Version newVersion(GitRepository repository, String path) throws RepositoryException {
+        return newVersion(repository, path, new DummyVersion(UUID.randomUUID().toString()));
+    }
+
+    protected Version newVersion(GitRepository repository, String path, Version version) throws RepositoryException {
+        Write write = repository.init();
+        write.pushResource(path, new DummyContentResource(path));
+        write.tag(version);
+        return version;
+    }
+
+    protected String getRemote(String name) {
+        return new File(rootDirectory, name).getAbsolutePath();
+    }
+
+}
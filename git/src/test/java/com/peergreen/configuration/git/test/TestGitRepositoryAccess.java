@@ -0,0 +1,210 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.git.test;
+
+import java.io.File;
+import java.util.UUID;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.peergreen.configuration.api.Read;
+import com.peergreen.configuration.api.RepositoryException;
+import com.peergreen.configuration.api.Write;
+import com.peergreen.configuration.api.test.DummyContentResource;
+import com.peergreen.configuration.api.test.DummyVersion;
+import com.peergreen.configuration.git.GitConfiguration;
+import com.peergreen.configuration.git.GitRepository;
+import com.peergreen.configuration.git.GitRepositoryAccess;
+
+/**
+ * Check the reference counting of the shared repositories, their idle close and the shutdown of the configuration.
+ * @author Florent Benoit
+ */
+@Test
+public class TestGitRepositoryAccess {
+
+    @Test
+    public void referenceCounting() throws RepositoryException {
+        GitConfiguration configuration = newConfiguration();
+        configuration.setIdleTimeout(0);
+        try {
+            GitRepositoryAccess access1 = getAccess(configuration);
+            GitRepositoryAccess access2 = getAccess(configuration);
+            Assert.assertNotSame(access1, access2);
+            Assert.assertSame(access1.getGitRepository(), access2.getGitRepository());
+
+            // Closing an access twice only releases its own reference
+            access1.close();
+            access1.close();
+            Assert.assertTrue(access1.isClosed());
+            GitRepositoryAccess access3 = getAccess(configuration);
+            Assert.assertSame(access3.getGitRepository(), access2.getGitRepository());
+
+            // Disposed once all the accesses are closed
+            access2.close();
+            access3.close();
+            GitRepositoryAccess access4 = getAccess(configuration);
+            Assert.assertNotSame(access4.getGitRepository(), access2.getGitRepository());
+            access4.close();
+        } finally {
+            configuration.shutdown();
+        }
+    }
+
+    @Test(expectedExceptions=RepositoryException.class)
+    public void closedAccess() throws RepositoryException {
+        GitConfiguration configuration = newConfiguration();
+        try {
+            GitRepositoryAccess access = getAccess(configuration);
+            access.close();
+            access.getVersions();
+        } finally {
+            configuration.shutdown();
+        }
+    }
+
+    @Test
+    public void viewsOfClosedAccess() throws RepositoryException {
+        GitConfiguration configuration = newConfiguration();
+        try {
+            GitRepositoryAccess access = getAccess(configuration);
+            Write write = access.init();
+            write.pushResource("file.xml", new DummyContentResource("file"));
+            write.tag(new DummyVersion("1.0"));
+            Read read = access.read(new DummyVersion("1.0"));
+            Assert.assertNotNull(read.getResource("file.xml"));
+
+            // Another access keeps the repository opened, the views of the closed access can't be used
+            GitRepositoryAccess other = getAccess(configuration);
+            access.close();
+            try {
+                read.getResource("file.xml");
+                Assert.fail("The access of the read is closed");
+            } catch (RepositoryException e) {
+                // expected
+            }
+            try {
+                read.getPaths();
+                Assert.fail("The access of the read is closed");
+            } catch (RepositoryException e) {
+                // expected
+            }
+            try {
+                write.pushResource("other.xml", new DummyContentResource("other"));
+                Assert.fail("The access of the write is closed");
+            } catch (RepositoryException e) {
+                // expected
+            }
+            try {
+                write.undo();
+                Assert.fail("The access of the write is closed");
+            } catch (RepositoryException e) {
+                // expected
+            }
+
+            // Views of the other access are still usable
+            Assert.assertNotNull(other.read(new DummyVersion("1.0")).getResource("file.xml"));
+            other.close();
+        } finally {
+            configuration.shutdown();
+        }
+    }
+
+    @Test(expectedExceptions=RepositoryException.class)
+    public void viewsOfDisposedRepository() throws RepositoryException {
+        GitConfiguration configuration = newConfiguration();
+        GitRepositoryAccess access = getAccess(configuration);
+        Write write = access.getGitRepository().init();
+        write.pushResource("file.xml", new DummyContentResource("file"));
+
+        configuration.shutdown();
+        write.getPaths();
+    }
+
+    @Test(expectedExceptions=RepositoryException.class)
+    public void closeSharedRepository() throws RepositoryException {
+        GitConfiguration configuration = newConfiguration();
+        try {
+            getAccess(configuration).getGitRepository().close();
+        } finally {
+            configuration.shutdown();
+        }
+    }
+
+    @Test
+    public void idleClose() throws RepositoryException, InterruptedException {
+        GitConfiguration configuration = newConfiguration();
+        configuration.setIdleTimeout(200);
+        try {
+            GitRepositoryAccess access = getAccess(configuration);
+            GitRepository repository = access.getGitRepository();
+
+            // Used again before the timeout, the close is cancelled
+            access.close();
+            access = getAccess(configuration);
+            Assert.assertSame(access.getGitRepository(), repository);
+            access.close();
+
+            // Not used during the timeout, it is disposed
+            long end = System.currentTimeMillis() + 5000L;
+            while (!repository.isDisposed() && System.currentTimeMillis() < end) {
+                Thread.sleep(100);
+            }
+            Assert.assertTrue(repository.isDisposed());
+            access = getAccess(configuration);
+            Assert.assertNotSame(access.getGitRepository(), repository);
+            access.close();
+        } finally {
+            configuration.shutdown();
+        }
+    }
+
+    @Test
+    public void shutdown() throws RepositoryException {
+        GitConfiguration configuration = newConfiguration();
+        GitRepositoryAccess access = getAccess(configuration);
+        configuration.runMaintenance();
+
+        configuration.shutdown();
+        Assert.assertTrue(configuration.isShutdown());
+
+        // Repositories still used are closed too
+        Assert.assertTrue(access.getGitRepository().isDisposed());
+        try {
+            getAccess(configuration);
+            Assert.fail("The configuration is shut down");
+        } catch (RepositoryException e) {
+            // expected
+        }
+
+        // Shutting down again does nothing, closing the access neither
+        configuration.shutdown();
+        access.close();
+    }
+
+    protected GitConfiguration newConfiguration() throws RepositoryException {
+        GitConfiguration configuration = new GitConfiguration();
+        configuration.setRootDirectory(new File("target", TestGitRepositoryAccess.class.getName() + "-" + UUID.randomUUID()));
+        return configuration;
+    }
+
+    protected GitRepositoryAccess getAccess(GitConfiguration configuration) throws RepositoryException {
+        return (GitRepositoryAccess) configuration.getRepository("access");
+    }
+
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.git.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.peergreen.configuration.api.RepositoryException;
+import com.peergreen.configuration.api.Version;
+import com.peergreen.configuration.api.test.DummyContentResource;
+import com.peergreen.configuration.api.test.DummyVersion;
+import com.peergreen.configuration.git.GitConfiguration;
+import com.peergreen.configuration.git.GitRepository;
+import com.peergreen.configuration.git.GitRepositoryAccess;
+import com.peergreen.configuration.git.GitWrite;
+
+/**
+ * Check the isolation and the references of the write sessions.
+ * @author Florent Benoit
+ */
+@Test
+public class TestGitSessions {
+
+    private final GitRepository repository;
+
+    public TestGitSessions() throws RepositoryException {
+        // New repository for each run
+        GitConfiguration configuration = new GitConfiguration();
+        configuration.setRootDirectory(new File("target", TestGitSessions.class.getName() + "-" + UUID.randomUUID()));
+        this.repository = ((GitRepositoryAccess) configuration.getRepository("sessions")).getGitRepository();
+    }
+
+    @Test
+    public void isolation() throws RepositoryException {
+        GitWrite write = (GitWrite) repository.init();
+        write.pushResource("isolation.xml", new DummyContentResource("isolation"));
+
+        // Without production version, a new session starts from master and doesn't see the untagged changes
+        Assert.assertNull(repository.getProductionVersion());
+        Assert.assertNull(repository.init().getResource("isolation.xml"));
+
+        // Once tagged and in production, they are seen by the new sessions
+        Version version = new DummyVersion(UUID.randomUUID().toString());
+        write.tag(version);
+        Assert.assertNull(repository.init().getResource("isolation.xml"));
+        repository.setProductionVersion(version);
+        Assert.assertNotNull(repository.init().getResource("isolation.xml"));
+    }
+
+    @Test
+    public void sessionRefs() throws RepositoryException, IOException {
+        GitWrite write = (GitWrite) repository.init();
+        Assert.assertNull(getRef(write.getSessionRef()));
+
+        write.pushResource("refs/file.xml", new DummyContentResource("first"));
+        ObjectId first = write.getObjectIdRevision();
+        write.pushResource("refs/file.xml", new DummyContentResource("second"));
+        ObjectId second = write.getObjectIdRevision();
+        Assert.assertEquals(getRef(write.getSessionRef()), second);
+        Assert.assertNull(getRef(write.getRedoRef()));
+
+        // The undone commit stays reachable
+        Assert.assertTrue(write.undo());
+        Assert.assertEquals(getRef(write.getSessionRef()), first);
+        Assert.assertEquals(getRef(write.getRedoRef()), second);
+
+        Assert.assertTrue(write.redo());
+        Assert.assertEquals(getRef(write.getSessionRef()), second);
+        Assert.assertNull(getRef(write.getRedoRef()));
+
+        // A new change drops the commits that could be redone
+        Assert.assertTrue(write.undo());
+        write.pushResource("refs/other.xml", new DummyContentResource("other"));
+        Assert.assertFalse(write.isRedoable());
+        Assert.assertNull(getRef(write.getRedoRef()));
+    }
+
+    @Test
+    public void close() throws RepositoryException, IOException {
+        GitWrite write = (GitWrite) repository.init();
+        write.pushResource("close/file1.xml", new DummyContentResource("first"));
+        write.pushResource("close/file2.xml", new DummyContentResource("second"));
+        write.undo();
+        Assert.assertNotNull(getRef(write.getRedoRef()));
+
+        write.close();
+        Assert.assertTrue(write.isClosed());
+        Assert.assertNull(getRef(write.getSessionRef()));
+        Assert.assertNull(getRef(write.getRedoRef()));
+        try {
+            write.pushResource("close/file3.xml", new DummyContentResource("third"));
+            Assert.fail("The session is closed");
+        } catch (RepositoryException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void concurrentSessions() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<GitWrite>> futures = new ArrayList<Future<GitWrite>>();
+            for (int i = 0; i < 8; i++) {
+                final String name = "session" + i;
+                futures.add(executor.submit(new Callable<GitWrite>() {
+                    @Override
+                    public GitWrite call() throws RepositoryException {
+                        GitWrite write = (GitWrite) repository.init();
+                        for (int j = 0; j < 5; j++) {
+                            write.pushResource(name + "/file" + j + ".xml", new DummyContentResource(name + " " + j));
+                        }
+                        return write;
+                    }
+                }));
+            }
+
+            // Each session only sees its own changes, published on its own reference
+            for (int i = 0; i < futures.size(); i++) {
+                GitWrite write = futures.get(i).get(30, TimeUnit.SECONDS);
+                Assert.assertEquals(getRef(write.getSessionRef()), write.getObjectIdRevision());
+                for (int j = 0; j < futures.size(); j++) {
+                    Assert.assertEquals(write.getResource("session" + j + "/file4.xml") != null, i == j);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    protected ObjectId getRef(String refName) throws IOException {
+        Ref ref = repository.getGitManager().repository().getRef(refName);
+        if (ref == null) {
+            return null;
+        }
+        return ref.getObjectId();
+    }
+
+}
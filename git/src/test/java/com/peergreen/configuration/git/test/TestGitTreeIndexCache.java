@@ -0,0 +1,155 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.git.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.peergreen.configuration.api.RepositoryException;
+import com.peergreen.configuration.api.test.DummyContentResource;
+import com.peergreen.configuration.git.GitConfiguration;
+import com.peergreen.configuration.git.GitRepository;
+import com.peergreen.configuration.git.GitRepositoryAccess;
+import com.peergreen.configuration.git.GitTreeIndex;
+import com.peergreen.configuration.git.GitTreeIndexCache;
+import com.peergreen.configuration.git.GitWrite;
+
+/**
+ * Check the tree indexes and their cache.
+ * @author Florent Benoit
+ */
+@Test
+public class TestGitTreeIndexCache {
+
+    private final GitRepository repository;
+
+    /**
+     * Commits with 1, 2 and 3 files.
+     */
+    private final List<ObjectId> commits = new ArrayList<ObjectId>();
+
+    public TestGitTreeIndexCache() throws RepositoryException {
+        // New repository for each run
+        GitConfiguration configuration = new GitConfiguration();
+        configuration.setRootDirectory(new File("target", TestGitTreeIndexCache.class.getName() + "-" + UUID.randomUUID()));
+        this.repository = ((GitRepositoryAccess) configuration.getRepository("index")).getGitRepository();
+    }
+
+    @Test
+    public void populate() throws RepositoryException {
+        GitWrite write = (GitWrite) repository.init();
+        // Index of the base commit, the next ones are derived from it
+        Assert.assertTrue(write.getPaths().isEmpty());
+        for (String path : new String[] {"server.xml", "datasources/db1.xml", "datasources/db2.xml"}) {
+            write.pushResource(path, new DummyContentResource("content of " + path));
+            commits.add(write.getObjectIdRevision());
+        }
+    }
+
+    @Test(dependsOnMethods="populate")
+    public void build() throws IOException {
+        GitTreeIndex index = GitTreeIndex.build(repository.getGitManager().repository(), commits.get(2));
+        Assert.assertEquals(index.getCommitId(), commits.get(2));
+        Assert.assertEquals(index.size(), 3);
+        Assert.assertEquals(index.get("datasources/db1.xml").getSize(), "content of datasources/db1.xml".length());
+        Assert.assertNull(index.get("datasources"));
+        Assert.assertNull(index.get("unknown.xml"));
+    }
+
+    @Test(dependsOnMethods="populate")
+    public void derivedIndex() throws IOException {
+        // Each commit of the session has been derived from the index of its parent
+        GitTreeIndexCache cache = repository.getGitManager().treeIndexCache();
+        for (ObjectId commitId : commits) {
+            GitTreeIndex derived = cache.getIfPresent(commitId);
+            Assert.assertNotNull(derived, "No index for " + commitId.name());
+            GitTreeIndex built = GitTreeIndex.build(repository.getGitManager().repository(), commitId);
+            // Same order as a walk of the tree
+            Assert.assertEquals(new ArrayList<String>(derived.getPaths()), new ArrayList<String>(built.getPaths()));
+            for (String path : built.getPaths()) {
+                Assert.assertEquals(derived.get(path).getBlobId(), built.get(path).getBlobId());
+                Assert.assertEquals(derived.get(path).getSize(), built.get(path).getSize());
+            }
+        }
+    }
+
+    @Test
+    public void pathOrder() throws IOException, RepositoryException {
+        GitWrite write = (GitWrite) repository.init();
+        Assert.assertTrue(write.getPaths().isEmpty());
+        // Pushed out of order, 'a.xml' is before 'a/' and 'a0.xml' after it in a tree
+        for (String path : new String[] {"z.xml", "a0.xml", "a/b.xml", "a.xml", "a/a.xml", "\u00e9.xml", "\ud83d\ude00.xml", "\uff21.xml"}) {
+            write.pushResource(path, new DummyContentResource("content of " + path));
+        }
+        ObjectId commitId = write.getObjectIdRevision();
+        GitTreeIndex derived = repository.getGitManager().treeIndexCache().getIfPresent(commitId);
+        Assert.assertNotNull(derived);
+        GitTreeIndex built = GitTreeIndex.build(repository.getGitManager().repository(), commitId);
+        Assert.assertEquals(new ArrayList<String>(derived.getPaths()), new ArrayList<String>(built.getPaths()));
+        Assert.assertEquals(new ArrayList<String>(built.getPaths()).subList(0, 4), Arrays.asList("a.xml", "a/a.xml", "a/b.xml", "a0.xml"));
+    }
+
+    @Test(dependsOnMethods="populate")
+    public void cacheHit() throws IOException {
+        GitTreeIndexCache cache = new GitTreeIndexCache(repository.getGitManager().repository());
+        Assert.assertNull(cache.getIfPresent(commits.get(0)));
+        GitTreeIndex index = cache.get(commits.get(0));
+        Assert.assertSame(cache.getIfPresent(commits.get(0)), index);
+        Assert.assertSame(cache.get(commits.get(0)), index);
+
+        // Index added concurrently for the same commit, the first one is kept
+        GitTreeIndex other = GitTreeIndex.build(repository.getGitManager().repository(), commits.get(0));
+        Assert.assertSame(cache.put(other), index);
+
+        cache.clear();
+        Assert.assertNull(cache.getIfPresent(commits.get(0)));
+    }
+
+    @Test(dependsOnMethods="populate")
+    public void eviction() throws IOException {
+        // Room for the indexes of the two first commits (1 + 2 entries) but not for the three of them
+        GitTreeIndexCache cache = new GitTreeIndexCache(repository.getGitManager().repository(), 4);
+        cache.get(commits.get(0));
+        cache.get(commits.get(1));
+        Assert.assertNotNull(cache.getIfPresent(commits.get(0)));
+        Assert.assertNotNull(cache.getIfPresent(commits.get(1)));
+
+        // The first commit is the most recently used, the second one is evicted
+        cache.get(commits.get(0));
+        cache.get(commits.get(2));
+        Assert.assertNull(cache.getIfPresent(commits.get(1)));
+        Assert.assertNotNull(cache.getIfPresent(commits.get(0)));
+        Assert.assertNotNull(cache.getIfPresent(commits.get(2)));
+
+        // Above the bound on its own, the most recent index is still kept
+        GitTreeIndexCache small = new GitTreeIndexCache(repository.getGitManager().repository(), 1);
+        small.get(commits.get(2));
+        Assert.assertNotNull(small.getIfPresent(commits.get(2)));
+        small.get(commits.get(0));
+        Assert.assertNull(small.getIfPresent(commits.get(2)));
+        Assert.assertNotNull(small.getIfPresent(commits.get(0)));
+    }
+
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.simple;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipInputStream;
+
+import com.peergreen.configuration.api.Resource;
+
+/**
+ * Content of the current entry of a zip archive.
+ * The entry is streamed once from the archive, unless it is buffered to be read later (e.g. staged by a batch).
+ * @author Florent Benoit
+ */
+public class ArchiveEntryResource implements Resource {
+
+    private final ZipInputStream zipInputStream;
+
+    private final byte[] content;
+
+    public ArchiveEntryResource(ZipInputStream zipInputStream, boolean buffered) throws IOException {
+        if (buffered) {
+            this.zipInputStream = null;
+            this.content = readContent(zipInputStream);
+        } else {
+            this.zipInputStream = zipInputStream;
+            this.content = null;
+        }
+    }
+
+    /**
+     * @return the content of the entry, the archive itself is not closed with the returned stream
+     */
+    @Override
+    public InputStream openStream() {
+        if (content != null) {
+            return new ByteArrayInputStream(content);
+        }
+        return new FilterInputStream(zipInputStream) {
+            @Override
+            public void close() {
+                // Next entries are still to be read
+            }
+        };
+    }
+
+    protected static byte[] readContent(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n = inputStream.read(buffer);
+        while (n != -1) {
+            out.write(buffer, 0, n);
+            n = inputStream.read(buffer);
+        }
+        return out.toByteArray();
+    }
+
+}
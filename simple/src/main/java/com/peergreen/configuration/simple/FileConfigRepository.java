@@ -17,66 +17,166 @@
 package com.peergreen.configuration.simple;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.ow2.util.file.FileUtils;
-import org.ow2.util.file.FileUtilsException;
 
 import com.peergreen.configuration.api.ConfigRepository;
+import com.peergreen.configuration.api.PathChange;
 import com.peergreen.configuration.api.Read;
 import com.peergreen.configuration.api.RepositoryException;
+import com.peergreen.configuration.api.RepositoryListener;
 import com.peergreen.configuration.api.Version;
 import com.peergreen.configuration.api.Write;
 
 /**
+ * Repository storing each version in its own directory.
+ * The production version is a pointer file naming one of these directories, it is switched by renaming a new pointer file in place.
  * @author Florent Benoit
  */
 public class FileConfigRepository implements ConfigRepository {
 
     private static final String WORK = "WORK";
     private static final String PRODUCTION = "PRODUCTION";
+    private static final String PRODUCTION_POINTER = PRODUCTION + ".version";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
 
     private static final List<String> IGNORED_VERSIONS = Arrays.asList(new String[]{WORK, PRODUCTION});
 
     private File rootDirectory = null;
     private File workDirectory = null;
     private File productionDirectory = null;
+    private File productionPointer = null;
+
+    private volatile Version productionVersion = null;
+
+    private FileWalker walker = FileWalker.SEQUENTIAL;
 
-    private Version productionVersion = null;
+    private final FileVersionCatalog versionCatalog;
 
+    private final List<RepositoryListener> listeners = new CopyOnWriteArrayList<RepositoryListener>();
 
-    public FileConfigRepository(File rootDirectory) {
+
+    public FileConfigRepository(File rootDirectory) throws RepositoryException {
         this.rootDirectory = rootDirectory;
         if (!this.rootDirectory.exists()) {
             rootDirectory.mkdirs();
         }
         this.workDirectory = new File(rootDirectory, WORK);
         this.productionDirectory = new File(rootDirectory, PRODUCTION);
-        if (this.productionDirectory.exists()) {
+        this.productionPointer = new File(rootDirectory, PRODUCTION_POINTER);
+        if (this.productionPointer.exists()) {
+            this.productionVersion = readProductionPointer();
+        } else if (this.productionDirectory.exists()) {
+            // Production copied by a previous release, used until a new production version is set
             this.productionVersion = new FileVersion(productionDirectory);
         }
 
+        // Versions are listed once, then the catalog follows the changes of the directory
+        this.versionCatalog = new FileVersionCatalog(rootDirectory) {
+            @Override
+            protected void versionAdded(FileVersionCatalog.Entry entry) {
+                fireVersionAdded(entry.getVersion());
+            }
+
+            @Override
+            protected void fileChanged(String name) {
+                if (PRODUCTION_POINTER.equals(name)) {
+                    productionPointerChanged();
+                }
+            }
+        };
+        versionCatalog.start();
     }
 
     protected List<String> getVersionsNames(boolean includeAlias) {
         List<String> versions = new ArrayList<String>();
 
-        // We list directories and exclude some of them
-        File[] directories = rootDirectory.listFiles();
-        for (File directory : directories) {
-            if (IGNORED_VERSIONS.contains(directory.getName())) {
+        // We use the catalog of the directories and exclude some of them
+        for (FileVersionCatalog.Entry entry : versionCatalog.getEntries()) {
+            if (IGNORED_VERSIONS.contains(entry.getName())) {
                 if (includeAlias) {
-                    versions.add(directory.getName());
+                    versions.add(entry.getName());
                 }
             } else {
-                versions.add(directory.getName());
+                versions.add(entry.getName());
             }
         }
+
+        // Production alias is a pointer, not a directory
+        if (includeAlias && productionVersion != null && !versions.contains(PRODUCTION)) {
+            versions.add(PRODUCTION);
+        }
         return versions;
     }
 
+    /**
+     * @param name the name of a version or of an alias
+     * @return true if the version is available
+     */
+    protected boolean isAvailableVersion(String name) {
+        if (PRODUCTION.equals(name) && productionVersion != null) {
+            return true;
+        }
+        return versionCatalog.contains(name);
+    }
+
+    protected Version readProductionPointer() throws RepositoryException {
+        try {
+            String name = new String(Files.readAllBytes(productionPointer.toPath()), UTF_8).trim();
+            if (name.isEmpty()) {
+                return null;
+            }
+            return new FileVersion(name);
+        } catch (IOException e) {
+            throw new RepositoryException("Unable to read the production version from '" + productionPointer + "'.", e);
+        }
+    }
+
+    /**
+     * Atomically replaces the production pointer: readers see either the old or the new version, never a partial one.
+     * @param version the new production version
+     * @throws RepositoryException if the pointer can't be replaced
+     */
+    protected void writeProductionPointer(Version version) throws RepositoryException {
+        java.nio.file.Path tmpPointer = null;
+        try {
+            // Temporary file in the same directory so that the rename never crosses a file system
+            tmpPointer = Files.createTempFile(rootDirectory.toPath(), PRODUCTION_POINTER, ".tmp");
+            Files.write(tmpPointer, version.getName().getBytes(UTF_8));
+            Files.move(tmpPointer, productionPointer.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            if (tmpPointer != null) {
+                tmpPointer.toFile().delete();
+            }
+            throw new RepositoryException("Unable to set production version to version '" + version.getName() + "'.", e);
+        }
+    }
+
+    /**
+     * @param version a version or an alias
+     * @return the directory of the given version, the production alias being resolved to the production version
+     */
+    protected File getVersionDirectory(Version version) {
+        if (PRODUCTION.equals(version.getName()) && productionVersion != null) {
+            return new File(rootDirectory, productionVersion.getName());
+        }
+        return new File(rootDirectory, version.getName());
+    }
+
 
     @Override
     public List<Version> getVersions() {
@@ -100,7 +200,7 @@ public class FileConfigRepository implements ConfigRepository {
 
         if (version != null) {
             // Check version exists
-            if (!getVersionsNames(true).contains(version.getName())) {
+            if (!isAvailableVersion(version.getName())) {
                 throw new RepositoryException("Version specified '" + version.getName()
                         + "' is not an available version");
             }
@@ -110,20 +210,171 @@ public class FileConfigRepository implements ConfigRepository {
     @Override
     public void setProductionVersion(Version version) throws RepositoryException {
         checkVersionExists(version, true);
-        // Copy content from given Version to production
-        try {
+        Version newProductionVersion = version;
+        if (PRODUCTION.equals(version.getName())) {
+            newProductionVersion = productionVersion;
+        }
+        if (PRODUCTION.equals(newProductionVersion.getName())) {
+            // The pointer can't name the copied production that is removed below, it becomes a version
+            newProductionVersion = migrateLegacyProduction();
+        }
+
+        // Switch the pointer, the content of the version is not copied
+        writeProductionPointer(newProductionVersion);
+        switchProductionVersion(newProductionVersion);
+
+        // Remove the production copied by a previous release
+        if (productionDirectory.isDirectory()) {
             FileUtils.delete(productionDirectory);
-            File fromDirectory = new File(rootDirectory, version.getName());
-            FileUtils.copyDirectory(fromDirectory, productionDirectory);
-        } catch (FileUtilsException e) {
-            throw new RepositoryException("Unable to set production version to version '" + version.getName() + "'.", e);
+        }
+    }
+
+    /**
+     * Links the production copied by a previous release into a new version directory.
+     * The version is prepared in a hidden directory and renamed once complete, the copied production stays readable meanwhile.
+     * @return the new version, with the same content as the copied production
+     * @throws RepositoryException if the version can't be created
+     */
+    protected Version migrateLegacyProduction() throws RepositoryException {
+        Version version = new FileVersion(PRODUCTION + "-" + UUID.randomUUID());
+        File versionDirectory = new File(rootDirectory, version.getName());
+        final java.nio.file.Path source = productionDirectory.toPath();
+        final java.nio.file.Path target = new File(rootDirectory, "." + version.getName()).toPath();
+        try {
+            Files.walkFileTree(source, new SimpleFileVisitor<java.nio.file.Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(java.nio.file.Path dir, BasicFileAttributes attrs) throws IOException {
+                    Files.createDirectories(target.resolve(source.relativize(dir)));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(java.nio.file.Path file, BasicFileAttributes attrs) throws IOException {
+                    java.nio.file.Path link = target.resolve(source.relativize(file));
+                    try {
+                        Files.createLink(link, file);
+                    } catch (UnsupportedOperationException | FileSystemException e) {
+                        Files.copy(file, link, StandardCopyOption.COPY_ATTRIBUTES);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            Files.move(target, versionDirectory.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            FileUtils.delete(target.toFile());
+            throw new RepositoryException("Unable to move the production directory '" + productionDirectory + "' to a version.", e);
+        }
+        versionCatalog.add(versionDirectory);
+        return version;
+    }
+
+    /**
+     * Changes the production version known by this repository and notifies the listeners.
+     * @param newProductionVersion the version named by the production pointer
+     */
+    protected synchronized void switchProductionVersion(Version newProductionVersion) {
+        Version oldProductionVersion = productionVersion;
+        if (oldProductionVersion != null && oldProductionVersion.getName().equals(newProductionVersion.getName())) {
+            return;
         }
 
-        this.productionVersion = version;
+        // Directory of the old version, before the alias is moved to the new one
+        File oldDirectory = null;
+        if (oldProductionVersion != null) {
+            oldDirectory = getVersionDirectory(oldProductionVersion);
+        }
+        this.productionVersion = newProductionVersion;
+
+        if (listeners.isEmpty()) {
+            return;
+        }
+        List<PathChange> changes;
+        try {
+            changes = new FileDiff(walker).diff(oldDirectory, getVersionDirectory(newProductionVersion));
+        } catch (RepositoryException e) {
+            // Listeners are notified even if the changed paths can't be computed
+            changes = null;
+        }
+        for (RepositoryListener listener : listeners) {
+            try {
+                listener.productionVersionChanged(oldProductionVersion, newProductionVersion, changes);
+            } catch (RuntimeException e) {
+                // Other listeners are still notified
+                continue;
+            }
+        }
+    }
+
+    /**
+     * Called when the production pointer is replaced, maybe by another process.
+     */
+    protected void productionPointerChanged() {
+        try {
+            Version version = readProductionPointer();
+            if (version != null) {
+                switchProductionVersion(version);
+            }
+        } catch (RepositoryException e) {
+            // Pointer being replaced, the next event will read it
+            return;
+        }
+    }
+
+    protected void fireVersionAdded(Version version) {
+        if (IGNORED_VERSIONS.contains(version.getName())) {
+            return;
+        }
+        for (RepositoryListener listener : listeners) {
+            try {
+                listener.versionAdded(version);
+            } catch (RuntimeException e) {
+                // Other listeners are still notified
+                continue;
+            }
+        }
+    }
+
+    @Override
+    public List<PathChange> diff(Version oldVersion, Version newVersion) throws RepositoryException {
+        return diff(oldVersion, newVersion, walker);
+    }
+
+    /**
+     * Computes the changes between two versions, listing their paths with the given walker.
+     */
+    protected List<PathChange> diff(Version oldVersion, Version newVersion, FileWalker walker) throws RepositoryException {
+        checkVersionExists(oldVersion, false);
+        checkVersionExists(newVersion, false);
+        File oldDirectory = null;
+        if (oldVersion != null) {
+            oldDirectory = getVersionDirectory(oldVersion);
+        }
+        File newDirectory = null;
+        if (newVersion != null) {
+            newDirectory = getVersionDirectory(newVersion);
+        }
+        return new FileDiff(walker).diff(oldDirectory, newDirectory);
+    }
+
+    @Override
+    public void addRepositoryListener(RepositoryListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeRepositoryListener(RepositoryListener listener) {
+        listeners.remove(listener);
     }
 
     @Override
     public Read read(Version version) throws RepositoryException {
+        return read(version, walker);
+    }
+
+    /**
+     * Gets a view of the given version, listing its paths with the given walker.
+     */
+    protected Read read(Version version, FileWalker walker) throws RepositoryException {
         // check version
         checkVersionExists(version, false);
 
@@ -137,8 +388,9 @@ public class FileConfigRepository implements ConfigRepository {
             toGetVersion = productionVersion;
         }
 
-        File versionFile = new File(rootDirectory, toGetVersion.getName());
-        return new FileRead(versionFile);
+        FileRead read = new FileRead(getVersionDirectory(toGetVersion));
+        read.setWalker(walker);
+        return read;
 
     }
 
@@ -154,10 +406,17 @@ public class FileConfigRepository implements ConfigRepository {
 
     @Override
     public Write init(Version version) throws RepositoryException {
+        return init(version, walker);
+    }
+
+    /**
+     * Starts a working copy of the given version, listing its paths with the given walker.
+     */
+    protected Write init(Version version, FileWalker walker) throws RepositoryException {
         // check version
         checkVersionExists(version, false);
 
-        // delete current working directory
+        // delete the changes of the previous working copy
         if (workDirectory.exists()) {
             FileUtils.delete(workDirectory);
         }
@@ -165,23 +424,32 @@ public class FileConfigRepository implements ConfigRepository {
 
         // null : use production version
         if (version == null && productionVersion != null) {
-            fromDirectory = new File(rootDirectory, productionVersion.getName());
+            fromDirectory = getVersionDirectory(productionVersion);
         } else if (version != null) {
-            fromDirectory = new File(rootDirectory, version.getName());
+            fromDirectory = getVersionDirectory(version);
         }
 
-        if (fromDirectory != null) {
-            try {
-                FileUtils.copyDirectory(fromDirectory, workDirectory);
-            } catch (FileUtilsException e) {
-                throw new RepositoryException("Unable to initialize a working copy from version '" + version.getName() + "'.", e);
-            }
+        // Only the changes are written in the working directory, other paths are read from the base version
+        workDirectory.mkdirs();
+        FileWrite write = new FileWrite(workDirectory, fromDirectory, versionCatalog);
+        write.setWalker(walker);
+        return write;
+    }
+
+    /**
+     * Enables the parallel listing of the paths, for large trees on storages serving concurrent requests.
+     * @param parallel true to walk the subdirectories in parallel
+     */
+    public void setParallelWalk(boolean parallel) {
+        if (parallel) {
+            this.walker = FileWalker.PARALLEL;
         } else {
-            // just create an empty directory
-            workDirectory.mkdirs();
+            this.walker = FileWalker.SEQUENTIAL;
         }
+    }
 
-        return new FileWrite(workDirectory);
+    public boolean isParallelWalk() {
+        return walker.isParallel();
     }
 
     @Override
@@ -189,4 +457,9 @@ public class FileConfigRepository implements ConfigRepository {
         return false;
     }
 
+    @Override
+    public void close() {
+        versionCatalog.stop();
+    }
+
 }
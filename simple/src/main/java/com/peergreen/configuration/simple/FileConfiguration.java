@@ -17,25 +17,59 @@
 package com.peergreen.configuration.simple;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 
 import com.peergreen.configuration.api.ConfigRepository;
 import com.peergreen.configuration.api.Configuration;
 import com.peergreen.configuration.api.RepositoryException;
 
 /**
- *
+ * Simple implementation of the configuration.
+ * Each named repository is opened once and shared by all the callers, so that a single watcher follows its directory.
+ * Each caller gets its own access to it, the repository is closed once all the accesses are closed.
  * @author Florent Benoit
  */
 public class FileConfiguration implements Configuration {
 
     File rootDirectory = null;
 
+    /**
+     * Opened repositories by name.
+     */
+    private final Map<String, RepositoryHandle> repositories = new HashMap<String, RepositoryHandle>();
+
 
     @Override
     public ConfigRepository getRepository(String name) throws RepositoryException {
         check();
 
-        return new FileConfigRepository(new File(rootDirectory, name));
+        synchronized (repositories) {
+            RepositoryHandle handle = repositories.get(name);
+            if (handle == null) {
+                handle = new RepositoryHandle(new FileConfigRepository(new File(rootDirectory, name)));
+                repositories.put(name, handle);
+            }
+            handle.references++;
+            return new FileRepositoryAccess(this, name, handle.repository);
+        }
+    }
+
+    /**
+     * Releases an access to the given repository, it is closed when it is no longer used.
+     * Called once by each access when it is closed.
+     * @param name the name of the repository
+     * @param repository the released repository
+     */
+    protected void release(String name, FileConfigRepository repository) {
+        synchronized (repositories) {
+            RepositoryHandle handle = repositories.get(name);
+            if (handle == null || handle.repository != repository || --handle.references > 0) {
+                return;
+            }
+            repositories.remove(name);
+        }
+        repository.close();
     }
 
     @Override
@@ -52,4 +86,18 @@ public class FileConfiguration implements Configuration {
         }
     }
 
+    /**
+     * A shared repository and the number of callers using it.
+     */
+    protected static class RepositoryHandle {
+
+        private final FileConfigRepository repository;
+
+        private int references = 0;
+
+        public RepositoryHandle(FileConfigRepository repository) {
+            this.repository = repository;
+        }
+    }
+
 }
@@ -0,0 +1,130 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.simple;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.peergreen.configuration.api.Path;
+import com.peergreen.configuration.api.PathChange;
+import com.peergreen.configuration.api.RepositoryException;
+
+/**
+ * Computes the paths changed between two version directories.
+ * Files with the same size and modification time, or linked to the same content, are not read.
+ * @author Florent Benoit
+ */
+public class FileDiff {
+
+    private final FileWalker walker;
+
+    public FileDiff(FileWalker walker) {
+        this.walker = walker;
+    }
+
+    /**
+     * @param oldDirectory the directory of the old version, null for an empty version
+     * @param newDirectory the directory of the new version, null for an empty version
+     * @return the changes, ordered by path
+     * @throws RepositoryException if the directories can't be compared
+     */
+    public List<PathChange> diff(File oldDirectory, File newDirectory) throws RepositoryException {
+        Map<String, Path> oldPaths = list(oldDirectory);
+        Map<String, Path> newPaths = list(newDirectory);
+
+        Map<String, PathChange> changes = new TreeMap<String, PathChange>();
+        for (Path newPath : newPaths.values()) {
+            Path oldPath = oldPaths.get(newPath.name());
+            if (oldPath == null) {
+                changes.put(newPath.name(), new PathChange(newPath.name(), PathChange.Type.ADDED));
+            } else if (isModified(oldPath, new File(oldDirectory, getFilePattern(oldPath.name())), newPath, new File(newDirectory, getFilePattern(newPath.name())))) {
+                changes.put(newPath.name(), new PathChange(newPath.name(), PathChange.Type.MODIFIED));
+            }
+        }
+        for (Path oldPath : oldPaths.values()) {
+            if (!newPaths.containsKey(oldPath.name())) {
+                changes.put(oldPath.name(), new PathChange(oldPath.name(), PathChange.Type.REMOVED));
+            }
+        }
+        return new ArrayList<PathChange>(changes.values());
+    }
+
+    protected Map<String, Path> list(File directory) throws RepositoryException {
+        if (directory == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, Path> paths = new HashMap<String, Path>();
+        for (Path path : walker.walk(directory, "")) {
+            paths.put(path.name(), path);
+        }
+        return paths;
+    }
+
+    protected boolean isModified(Path oldPath, File oldFile, Path newPath, File newFile) throws RepositoryException {
+        if (oldPath.size() != newPath.size()) {
+            return true;
+        }
+        if (oldPath.lastModified() == newPath.lastModified()) {
+            return false;
+        }
+        try {
+            // Linked by a tag
+            if (Files.isSameFile(oldFile.toPath(), newFile.toPath())) {
+                return false;
+            }
+            return !sameContent(oldFile, newFile);
+        } catch (IOException e) {
+            throw new RepositoryException("Unable to compare '" + oldFile + "' with '" + newFile + "'", e);
+        }
+    }
+
+    protected boolean sameContent(File file1, File file2) throws IOException {
+        InputStream is1 = new BufferedInputStream(new FileInputStream(file1));
+        try {
+            InputStream is2 = new BufferedInputStream(new FileInputStream(file2));
+            try {
+                int b = is1.read();
+                while (b != -1) {
+                    if (b != is2.read()) {
+                        return false;
+                    }
+                    b = is1.read();
+                }
+                return is2.read() == -1;
+            } finally {
+                is2.close();
+            }
+        } finally {
+            is1.close();
+        }
+    }
+
+    protected String getFilePattern(String path) {
+        return path.replace("/", File.separator);
+    }
+
+}
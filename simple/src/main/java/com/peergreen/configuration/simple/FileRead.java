@@ -18,10 +18,23 @@ package com.peergreen.configuration.simple;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import com.peergreen.configuration.api.Path;
+import com.peergreen.configuration.api.PathNormalizer;
+import com.peergreen.configuration.api.PathPattern;
+import com.peergreen.configuration.api.PathVisitor;
 import com.peergreen.configuration.api.Read;
 import com.peergreen.configuration.api.RepositoryException;
 import com.peergreen.configuration.api.VersionedResource;
@@ -34,6 +47,10 @@ public class FileRead implements Read {
 
     private File rootDirectory = null;
 
+    private volatile File canonicalRootDirectory = null;
+
+    private FileWalker walker = FileWalker.SEQUENTIAL;
+
     public FileRead(File rootDirectory) {
         this.rootDirectory = rootDirectory;
     }
@@ -42,33 +59,96 @@ public class FileRead implements Read {
         return rootDirectory;
     }
 
-    protected List<Path> getPaths(File directory, String prefix) {
-        List<Path> paths = new ArrayList<Path>();
-        File[] entries = directory.listFiles();
-        for (File f : entries) {
-            if (f.isFile()) {
-                paths.add(new FilePath(f, prefix));
-            } else {
-                String newPrefix = prefix;
-                if (prefix.length() > 0) {
-                    newPrefix = prefix.concat("/").concat(f.getName());
-                } else {
-                    newPrefix = f.getName();
-                }
-                paths.addAll(getPaths(f, newPrefix));
-            }
-        }
+    /**
+     * Sets the walker used to list the paths.
+     * @param walker {@link FileWalker#SEQUENTIAL} or {@link FileWalker#PARALLEL}
+     */
+    public void setWalker(FileWalker walker) {
+        this.walker = walker;
+    }
 
-        return paths;
+    protected List<Path> getPaths(File directory, String prefix) throws RepositoryException {
+        return walker.walk(directory, prefix);
     }
 
 
     @Override
-    public List<Path> getPaths() {
+    public List<Path> getPaths() throws RepositoryException {
         return getPaths(rootDirectory, "");
 
     }
 
+    @Override
+    public List<Path> getPaths(String filter) throws RepositoryException {
+        return getPaths(rootDirectory, PathPattern.compile(filter));
+    }
+
+    @Override
+    public boolean walkPaths(PathVisitor visitor) throws RepositoryException {
+        return walkPaths(rootDirectory, null, visitor);
+    }
+
+    @Override
+    public boolean walkPaths(String filter, PathVisitor visitor) throws RepositoryException {
+        return walkPaths(rootDirectory, PathPattern.compile(filter), visitor);
+    }
+
+    /**
+     * Visits the paths of the given directory selected by the pattern while the directory is walked.
+     * @param directory the root directory of a version
+     * @param pattern the pattern, null for all the paths
+     * @param visitor the visitor receiving each path
+     * @return true if all the paths have been visited, false if the visitor stopped the walk
+     * @throws RepositoryException if the directory can't be walked or if the visitor failed
+     */
+    protected boolean walkPaths(File directory, PathPattern pattern, PathVisitor visitor) throws RepositoryException {
+        if (pattern == null) {
+            return walker.visit(directory, "", null, visitor);
+        }
+        String baseDirectory = pattern.getBaseDirectory();
+        if (baseDirectory.isEmpty()) {
+            return walker.visit(directory, "", pattern, visitor);
+        }
+
+        // The prefix may name a file
+        File baseFile = new File(directory, getFilePattern(baseDirectory));
+        if (baseFile.isFile()) {
+            if (pattern.matches(baseDirectory)) {
+                return visitor.visit(new FilePath(baseDirectory, baseFile.length(), baseFile.lastModified()));
+            }
+            return true;
+        }
+        return walker.visit(baseFile, baseDirectory, pattern, visitor);
+    }
+
+    /**
+     * Lists the paths of the given directory selected by the pattern, only the base directory of the pattern is walked.
+     * @param directory the root directory of a version
+     * @param pattern the pattern
+     * @return the selected paths
+     * @throws RepositoryException if the directory can't be walked
+     */
+    protected List<Path> getPaths(File directory, PathPattern pattern) throws RepositoryException {
+        String baseDirectory = pattern.getBaseDirectory();
+        File baseFile = directory;
+        if (!baseDirectory.isEmpty()) {
+            baseFile = new File(directory, getFilePattern(baseDirectory));
+        }
+
+        List<Path> paths = new ArrayList<Path>();
+        for (Path path : getPaths(baseFile, baseDirectory)) {
+            if (pattern.matches(path.name())) {
+                paths.add(path);
+            }
+        }
+
+        // The prefix may name a file
+        if (!baseDirectory.isEmpty() && baseFile.isFile() && pattern.matches(baseDirectory)) {
+            paths.add(new FilePath(baseDirectory, baseFile.length(), baseFile.lastModified()));
+        }
+        return paths;
+    }
+
     @Override
     public VersionedResource getResource(String path) throws RepositoryException {
         if (path == null) {
@@ -83,29 +163,116 @@ public class FileRead implements Read {
     }
 
 
-    protected String getFilePattern(String path) {
-        return path.replace("/", File.separator);
+    @Override
+    public Map<String, VersionedResource> getResources(Collection<String> paths) throws RepositoryException {
+        Map<String, VersionedResource> resources = new LinkedHashMap<String, VersionedResource>();
+        for (String path : paths) {
+            VersionedResource resource = getResource(getResourceFile(checkAndGetPath(path)));
+            if (resource != null) {
+                resources.put(path, resource);
+            }
+        }
+        return resources;
     }
 
-    protected File checkAndGetResourceFile(String path) throws RepositoryException {
-        File repositoryRootDir;
+    /**
+     * Gets the resource of a file with its attributes, read at once.
+     * @param file the file of the resource
+     * @return the resource or null if there is no such file
+     */
+    protected VersionedResource getResource(File file) {
+        BasicFileAttributes attributes;
         try {
-            repositoryRootDir = rootDirectory.getCanonicalFile();
+            attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
         } catch (IOException e) {
-            throw new RepositoryException("Cannot get repository directory", e);
+            // not found
+            return null;
+        }
+        if (attributes.isDirectory()) {
+            return null;
         }
-        File resourceFile;
+        return new FileResource(file, new FileVersion(rootDirectory), attributes.size(), attributes.lastModifiedTime().toMillis());
+    }
+
+    @Override
+    public void export(WritableByteChannel channel) throws RepositoryException {
+        export(Channels.newOutputStream(channel));
+    }
+
+    @Override
+    public void export(OutputStream output) throws RepositoryException {
+        final ZipOutputStream zipOutputStream = new ZipOutputStream(output);
+        final WritableByteChannel zipChannel = Channels.newChannel(zipOutputStream);
         try {
-            resourceFile = new File(repositoryRootDir, getFilePattern(path)).getCanonicalFile();
+            walkPaths(new PathVisitor() {
+                @Override
+                public boolean visit(Path path) throws RepositoryException {
+                    VersionedResource resource = getResource(path.name());
+                    if (resource == null) {
+                        // Removed while exporting
+                        return true;
+                    }
+                    ZipEntry zipEntry = new ZipEntry(path.name());
+                    zipEntry.setTime(path.lastModified());
+                    try {
+                        zipOutputStream.putNextEntry(zipEntry);
+                        resource.transferTo(zipChannel);
+                        zipOutputStream.closeEntry();
+                    } catch (IOException e) {
+                        throw new RepositoryException("Unable to export the resource '" + path.name() + "'", e);
+                    }
+                    return true;
+                }
+            });
+            zipOutputStream.finish();
+            zipOutputStream.flush();
         } catch (IOException e) {
-            throw new RepositoryException("Cannot get file to write resource", e);
+            throw new RepositoryException("Unable to export the resources of '" + rootDirectory + "'", e);
         }
-        if (!resourceFile.getAbsolutePath().startsWith(repositoryRootDir.getAbsolutePath())) {
-            throw new RepositoryException("Try to read a resource '" + path + "' in a different directory than the repository, this is forbidden");
+    }
+
+    protected String getFilePattern(String path) {
+        return path.replace("/", File.separator);
+    }
+
+    /**
+     * @return the canonical root directory, resolved on first use
+     * @throws RepositoryException if the root directory can't be resolved
+     */
+    protected File getCanonicalRootDirectory() throws RepositoryException {
+        File canonicalRootDirectory = this.canonicalRootDirectory;
+        if (canonicalRootDirectory == null) {
+            try {
+                canonicalRootDirectory = rootDirectory.getCanonicalFile();
+            } catch (IOException e) {
+                throw new RepositoryException("Cannot get repository directory", e);
+            }
+            this.canonicalRootDirectory = canonicalRootDirectory;
         }
-        return resourceFile;
+        return canonicalRootDirectory;
+    }
 
+    /**
+     * Checks that the given path stays inside the repository, without any access to the file system.
+     * @param path the path of the resource
+     * @return the normalized path, using '/' as separator
+     * @throws RepositoryException if the path is outside of the repository
+     */
+    protected String checkAndGetPath(String path) throws RepositoryException {
+        return PathNormalizer.normalize(path);
     }
 
-}
+    /**
+     * @param normalizedPath a path checked by {@link #checkAndGetPath(String)}
+     * @return the file of the resource
+     * @throws RepositoryException if the root directory can't be resolved
+     */
+    protected File getResourceFile(String normalizedPath) throws RepositoryException {
+        return new File(getCanonicalRootDirectory(), getFilePattern(normalizedPath));
+    }
 
+    protected File checkAndGetResourceFile(String path) throws RepositoryException {
+        return getResourceFile(checkAndGetPath(path));
+    }
+
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.simple;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.peergreen.configuration.api.ConfigRepository;
+import com.peergreen.configuration.api.PathChange;
+import com.peergreen.configuration.api.Read;
+import com.peergreen.configuration.api.RepositoryException;
+import com.peergreen.configuration.api.RepositoryListener;
+import com.peergreen.configuration.api.Version;
+import com.peergreen.configuration.api.Write;
+
+/**
+ * Access of a caller to a repository shared by the configuration.
+ * Closing it releases its reference on the repository only once, and unregisters the listeners it has registered.
+ * The listing mode of the paths is chosen by each access.
+ * @author Florent Benoit
+ */
+public class FileRepositoryAccess implements ConfigRepository {
+
+    private final FileConfiguration configuration;
+
+    private final String name;
+
+    private final FileConfigRepository repository;
+
+    /**
+     * Listeners registered through this access.
+     */
+    private final List<RepositoryListener> listeners = new CopyOnWriteArrayList<RepositoryListener>();
+
+    private volatile FileWalker walker = FileWalker.SEQUENTIAL;
+
+    private volatile boolean closed = false;
+
+    public FileRepositoryAccess(FileConfiguration configuration, String name, FileConfigRepository repository) {
+        this.configuration = configuration;
+        this.name = name;
+        this.repository = repository;
+    }
+
+    /**
+     * @return the shared repository
+     */
+    public FileConfigRepository getFileConfigRepository() {
+        return repository;
+    }
+
+    @Override
+    public List<Version> getVersions() throws RepositoryException {
+        check();
+        return repository.getVersions();
+    }
+
+    @Override
+    public Version getProductionVersion() throws RepositoryException {
+        check();
+        return repository.getProductionVersion();
+    }
+
+    @Override
+    public void setProductionVersion(Version newVersion) throws RepositoryException {
+        check();
+        repository.setProductionVersion(newVersion);
+    }
+
+    @Override
+    public Read read(Version version) throws RepositoryException {
+        check();
+        return repository.read(version, walker);
+    }
+
+    @Override
+    public Read read() throws RepositoryException {
+        return read(null);
+    }
+
+    @Override
+    public Write init() throws RepositoryException {
+        return init(null);
+    }
+
+    @Override
+    public Write init(Version version) throws RepositoryException {
+        check();
+        return repository.init(version, walker);
+    }
+
+    @Override
+    public List<PathChange> diff(Version oldVersion, Version newVersion) throws RepositoryException {
+        check();
+        return repository.diff(oldVersion, newVersion, walker);
+    }
+
+    @Override
+    public boolean supportsHistory() {
+        return repository.supportsHistory();
+    }
+
+    @Override
+    public void addRepositoryListener(RepositoryListener listener) {
+        listeners.add(listener);
+        repository.addRepositoryListener(listener);
+    }
+
+    @Override
+    public void removeRepositoryListener(RepositoryListener listener) {
+        listeners.remove(listener);
+        repository.removeRepositoryListener(listener);
+    }
+
+    /**
+     * Enables the parallel listing of the paths for the reads and writes obtained through this access.
+     * @param parallel true to walk the subdirectories in parallel
+     */
+    public void setParallelWalk(boolean parallel) {
+        if (parallel) {
+            this.walker = FileWalker.PARALLEL;
+        } else {
+            this.walker = FileWalker.SEQUENTIAL;
+        }
+    }
+
+    public boolean isParallelWalk() {
+        return walker.isParallel();
+    }
+
+    /**
+     * Releases this access, closing it again does nothing.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        for (RepositoryListener listener : listeners) {
+            repository.removeRepositoryListener(listener);
+        }
+        listeners.clear();
+        configuration.release(name, repository);
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    protected void check() throws RepositoryException {
+        if (closed) {
+            throw new RepositoryException("The access to the repository '" + name + "' is closed");
+        }
+    }
+
+}
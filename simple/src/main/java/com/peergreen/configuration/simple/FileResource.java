@@ -2,7 +2,13 @@ package com.peergreen.configuration.simple;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 import com.peergreen.configuration.api.RepositoryException;
 import com.peergreen.configuration.api.Version;
@@ -34,10 +40,26 @@ public class FileResource implements VersionedResource {
 
     private final File file;
 
+    /**
+     * Size read with the attributes of the file, -1 if it is read on demand.
+     */
+    private final long size;
+
+    /**
+     * Last modification time read with the attributes of the file, -1 if it is read on demand.
+     */
+    private final long lastModified;
+
 
     public FileResource(File file, Version version) {
+        this(file, version, -1, -1);
+    }
+
+    public FileResource(File file, Version version, long size, long lastModified) {
         this.file = file;
         this.version = version;
+        this.size = size;
+        this.lastModified = lastModified;
     }
 
     @Override
@@ -58,15 +80,73 @@ public class FileResource implements VersionedResource {
 
 
 
+    @Override
+    public ReadableByteChannel openChannel() throws RepositoryException {
+        return openFileChannel();
+    }
+
+    @Override
+    public long transferTo(WritableByteChannel target) throws RepositoryException {
+        FileChannel channel = openFileChannel();
+        try {
+            long size = channel.size();
+            long position = 0;
+            // transferTo may send less than asked (e.g. non-blocking sockets)
+            while (position < size) {
+                position += channel.transferTo(position, size - position, target);
+            }
+            return position;
+        } catch (IOException e) {
+            throw new RepositoryException("Cannot transfer the content of the file '" + file + "'", e);
+        } finally {
+            close(channel);
+        }
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer() throws RepositoryException {
+        FileChannel channel = openFileChannel();
+        try {
+            // The mapping stays valid once the channel is closed
+            return channel.map(MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new RepositoryException("Cannot map the file '" + file + "'", e);
+        } finally {
+            close(channel);
+        }
+    }
+
+    protected FileChannel openFileChannel() throws RepositoryException {
+        try {
+            return new FileInputStream(file).getChannel();
+        } catch (FileNotFoundException e) {
+            throw new RepositoryException("Cannot open channel", e);
+        }
+    }
+
+    protected void close(FileChannel channel) throws RepositoryException {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new RepositoryException("Cannot close the file '" + file + "'", e);
+        }
+    }
+
     @Override
     public long lastModified() {
-       return file.lastModified();
+        if (lastModified != -1) {
+            return lastModified;
+        }
+        return file.lastModified();
     }
 
 
 
     @Override
     public long getSize() {
+        if (size != -1) {
+            return size;
+        }
         return file.length();
     }
 
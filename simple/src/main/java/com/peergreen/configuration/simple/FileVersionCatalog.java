@@ -0,0 +1,260 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.simple;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory catalog of the version directories of a repository.
+ * It is loaded once and kept current by the tags and by a watch service on the repository directory.
+ * Hidden directories (starting with a '.') are not versions, they may be used to prepare a version.
+ * @author Florent Benoit
+ */
+public class FileVersionCatalog {
+
+    private final File rootDirectory;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    private WatchService watchService = null;
+
+    private Thread watcher = null;
+
+    public FileVersionCatalog(File rootDirectory) {
+        this.rootDirectory = rootDirectory;
+        reload();
+    }
+
+    /**
+     * Lists the version directories again, replacing the content of the catalog.
+     */
+    public synchronized void reload() {
+        List<String> names = new ArrayList<String>();
+        File[] directories = rootDirectory.listFiles();
+        if (directories != null) {
+            for (File directory : directories) {
+                if (isVersionDirectory(directory)) {
+                    names.add(directory.getName());
+                    add(directory);
+                }
+            }
+        }
+        entries.keySet().retainAll(names);
+    }
+
+    /**
+     * Starts watching the repository directory. The catalog is only updated by the tags if the file system can't be watched.
+     */
+    public synchronized void start() {
+        if (watchService != null) {
+            return;
+        }
+        try {
+            watchService = rootDirectory.toPath().getFileSystem().newWatchService();
+            rootDirectory.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | UnsupportedOperationException e) {
+            close(watchService);
+            watchService = null;
+            return;
+        }
+        // Versions created between the first listing and the registration
+        reload();
+
+        final WatchService service = watchService;
+        watcher = new Thread("Version catalog of " + rootDirectory) {
+            @Override
+            public void run() {
+                watch(service);
+            }
+        };
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    protected void watch(WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        reload();
+                        continue;
+                    }
+                    String name = event.context().toString();
+                    File file = new File(rootDirectory, name);
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                        remove(name);
+                    } else if (isVersionDirectory(file)) {
+                        add(file);
+                    } else if (file.isFile()) {
+                        fileChanged(name);
+                    }
+                }
+                if (!key.reset()) {
+                    // Repository directory is gone
+                    entries.clear();
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Catalog has been stopped
+            return;
+        }
+    }
+
+    /**
+     * Stops watching the repository directory.
+     */
+    public synchronized void stop() {
+        close(watchService);
+        watchService = null;
+        watcher = null;
+    }
+
+    protected void close(WatchService service) {
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException e) {
+                // Already closed
+                return;
+            }
+        }
+    }
+
+    /**
+     * Adds a new version directory, e.g. after a tag.
+     * @param directory the directory of the version
+     */
+    public void add(File directory) {
+        if (!entries.containsKey(directory.getName())) {
+            Entry entry = new Entry(directory);
+            if (entries.putIfAbsent(directory.getName(), entry) == null) {
+                versionAdded(entry);
+            }
+        }
+    }
+
+    protected boolean isVersionDirectory(File file) {
+        return !file.getName().startsWith(".") && file.isDirectory();
+    }
+
+    /**
+     * Called when a version directory is added to the catalog.
+     * @param entry the new version
+     */
+    protected void versionAdded(Entry entry) {
+    }
+
+    /**
+     * Called by the watch service when a file of the repository directory is created or modified.
+     * @param name the name of the file
+     */
+    protected void fileChanged(String name) {
+    }
+
+    public void remove(String name) {
+        entries.remove(name);
+    }
+
+    /**
+     * @param name the name of a version
+     * @return true if there is a directory for this version. On a miss, the directory is checked on the disk
+     * in case the event of the watch service has not been processed yet.
+     */
+    public boolean contains(String name) {
+        if (entries.containsKey(name)) {
+            return true;
+        }
+        // Only the direct children of the repository directory are versions
+        if (name.isEmpty() || name.indexOf('/') != -1 || name.indexOf(File.separatorChar) != -1) {
+            return false;
+        }
+        File directory = new File(rootDirectory, name);
+        if (isVersionDirectory(directory)) {
+            add(directory);
+            return true;
+        }
+        return false;
+    }
+
+    public Entry get(String name) {
+        return entries.get(name);
+    }
+
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    public boolean isWatching() {
+        return watcher != null;
+    }
+
+    /**
+     * Metadata of a version directory.
+     */
+    public static class Entry {
+
+        private final FileVersion version;
+
+        private final File directory;
+
+        private final long lastModified;
+
+        public Entry(File directory) {
+            this.version = new FileVersion(directory);
+            this.directory = directory;
+            this.lastModified = directory.lastModified();
+        }
+
+        public FileVersion getVersion() {
+            return version;
+        }
+
+        public String getName() {
+            return version.getName();
+        }
+
+        public File getDirectory() {
+            return directory;
+        }
+
+        /**
+         * @return the last modification time of the version directory when it has been added to the catalog, in milliseconds
+         */
+        public long lastModified() {
+            return lastModified;
+        }
+
+    }
+
+}
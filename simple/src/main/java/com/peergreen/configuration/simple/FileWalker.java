@@ -0,0 +1,325 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.simple;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.peergreen.configuration.api.Path;
+import com.peergreen.configuration.api.PathPattern;
+import com.peergreen.configuration.api.PathVisitor;
+import com.peergreen.configuration.api.RepositoryException;
+
+/**
+ * Lists the files of a directory tree, the attributes of each entry are read only once.
+ * In parallel mode, the subdirectories are walked by a fork-join pool.
+ * @author Florent Benoit
+ */
+public class FileWalker {
+
+    /**
+     * Walker listing the directories one after the other.
+     */
+    public static final FileWalker SEQUENTIAL = new FileWalker(false);
+
+    /**
+     * Walker listing the subdirectories in parallel.
+     */
+    public static final FileWalker PARALLEL = new FileWalker(true);
+
+    /**
+     * Pool shared by all the parallel walks, created on first use.
+     */
+    private static ForkJoinPool pool = null;
+
+    private final boolean parallel;
+
+    protected FileWalker(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Lists the files of the given directory and of its subdirectories.
+     * @param directory the directory to walk
+     * @param prefix the prefix of the path names, empty for the root of a version
+     * @return the path of each file, named relatively to the given directory
+     * @throws RepositoryException if the directory can't be walked
+     */
+    public List<Path> walk(File directory, String prefix) throws RepositoryException {
+        if (!directory.isDirectory()) {
+            return Collections.emptyList();
+        }
+        if (parallel) {
+            return walkParallel(directory.toPath(), prefix);
+        }
+        return walkSequential(directory.toPath(), prefix);
+    }
+
+    protected List<Path> walkSequential(java.nio.file.Path root, String prefix) throws RepositoryException {
+        final List<Path> paths = new ArrayList<Path>();
+        visit(root, prefix, null, new PathVisitor() {
+            @Override
+            public boolean visit(Path path) {
+                paths.add(path);
+                return true;
+            }
+        });
+        return paths;
+    }
+
+    /**
+     * Visits the files of the given directory and of its subdirectories while they are listed, the walk is always sequential.
+     * @param directory the directory to walk
+     * @param prefix the prefix of the path names, empty for the root of a version
+     * @param pattern the pattern selecting the visited paths, null for all the paths
+     * @param visitor the visitor receiving each path
+     * @return true if all the paths have been visited, false if the visitor stopped the walk
+     * @throws RepositoryException if the directory can't be walked or if the visitor failed
+     */
+    public boolean visit(File directory, String prefix, PathPattern pattern, PathVisitor visitor) throws RepositoryException {
+        if (!directory.isDirectory()) {
+            return true;
+        }
+        return visit(directory.toPath(), prefix, pattern, visitor);
+    }
+
+    protected boolean visit(final java.nio.file.Path root, final String prefix, final PathPattern pattern, final PathVisitor visitor) throws RepositoryException {
+        final boolean[] stopped = new boolean[1];
+        try {
+            Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<java.nio.file.Path>() {
+                @Override
+                public FileVisitResult visitFile(java.nio.file.Path file, BasicFileAttributes attributes) throws IOException {
+                    // Links are followed, a link is only reported if its target is missing
+                    if (attributes.isDirectory() || attributes.isSymbolicLink()) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    String name = getName(prefix, root.relativize(file));
+                    if (pattern != null && !pattern.matches(name)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    try {
+                        if (!visitor.visit(newPath(name, attributes))) {
+                            stopped[0] = true;
+                            return FileVisitResult.TERMINATE;
+                        }
+                    } catch (RepositoryException e) {
+                        throw new VisitorException(e);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(java.nio.file.Path file, IOException e) throws IOException {
+                    if (isSkipped(e)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    throw e;
+                }
+            });
+        } catch (VisitorException e) {
+            throw e.getRepositoryException();
+        } catch (IOException e) {
+            throw new RepositoryException("Unable to list the files of '" + root + "'", e);
+        }
+        return !stopped[0];
+    }
+
+    protected List<Path> walkParallel(java.nio.file.Path root, String prefix) throws RepositoryException {
+        Queue<Path> paths = new ConcurrentLinkedQueue<Path>();
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(root, BasicFileAttributes.class);
+            getPool().invoke(new DirectoryTask(root, prefix, paths, Collections.singletonList(getKey(root, attributes))));
+        } catch (NoSuchFileException e) {
+            // Directory removed before the walk
+            return Collections.emptyList();
+        } catch (IOException e) {
+            throw new RepositoryException("Unable to list the files of '" + root + "'", e);
+        } catch (RuntimeException e) {
+            // The failure of a task may be rethrown as a copy, the cause is kept
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException) {
+                    throw new RepositoryException("Unable to list the files of '" + root + "'", (IOException) cause);
+                }
+            }
+            throw new RepositoryException("Unable to list the files of '" + root + "'", e);
+        }
+        return new ArrayList<Path>(paths);
+    }
+
+    /**
+     * Failures ignored by both walks: entries removed while walking, broken links and link loops.
+     * @param e the failure on an entry
+     * @return true if the entry is skipped, false if the walk fails
+     */
+    protected static boolean isSkipped(IOException e) {
+        return e instanceof NoSuchFileException || e instanceof FileSystemLoopException;
+    }
+
+    /**
+     * @return the key identifying a directory, used to detect link loops
+     */
+    protected static Object getKey(java.nio.file.Path directory, BasicFileAttributes attributes) throws IOException {
+        if (attributes.fileKey() != null) {
+            return attributes.fileKey();
+        }
+        return directory.toRealPath();
+    }
+
+    protected static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool();
+        }
+        return pool;
+    }
+
+    protected static String getName(String prefix, java.nio.file.Path relativePath) {
+        String name = relativePath.toString();
+        if (File.separatorChar != '/') {
+            name = name.replace(File.separatorChar, '/');
+        }
+        if (prefix.length() > 0) {
+            return prefix.concat("/").concat(name);
+        }
+        return name;
+    }
+
+    protected static Path newPath(String name, BasicFileAttributes attributes) {
+        return new FilePath(name, attributes.size(), attributes.lastModifiedTime().toMillis());
+    }
+
+    /**
+     * Carries the failure of a visitor through the walk of the file tree.
+     */
+    private static class VisitorException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        public VisitorException(RepositoryException e) {
+            super(e);
+        }
+
+        public RepositoryException getRepositoryException() {
+            return (RepositoryException) getCause();
+        }
+    }
+
+    /**
+     * Lists the files of a directory and forks a task for each subdirectory.
+     * Like the sequential walk, links are followed unless they point to a directory being walked.
+     */
+    private static class DirectoryTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final java.nio.file.Path directory;
+
+        private final String prefix;
+
+        private final Queue<Path> paths;
+
+        /**
+         * Keys of this directory and of its parents, used to detect link loops.
+         */
+        private final List<Object> ancestors;
+
+        public DirectoryTask(java.nio.file.Path directory, String prefix, Queue<Path> paths, List<Object> ancestors) {
+            this.directory = directory;
+            this.prefix = prefix;
+            this.paths = paths;
+            this.ancestors = ancestors;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryTask> tasks = new ArrayList<DirectoryTask>();
+            try (DirectoryStream<java.nio.file.Path> stream = Files.newDirectoryStream(directory)) {
+                for (java.nio.file.Path entry : stream) {
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        // Entry removed while walking or broken link, including a link to itself
+                        if (isSkipped(e) || Files.isSymbolicLink(entry)) {
+                            continue;
+                        }
+                        throw e;
+                    }
+                    String name = entry.getFileName().toString();
+                    if (prefix.length() > 0) {
+                        name = prefix.concat("/").concat(name);
+                    }
+                    if (!attributes.isDirectory()) {
+                        paths.add(newPath(name, attributes));
+                        continue;
+                    }
+                    Object key = getKey(entry, attributes);
+                    if (!ancestors.contains(key)) {
+                        List<Object> entryAncestors = new ArrayList<Object>(ancestors);
+                        entryAncestors.add(key);
+                        DirectoryTask task = new DirectoryTask(entry, name, paths, entryAncestors);
+                        task.fork();
+                        tasks.add(task);
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                // Directory removed while walking
+                return;
+            } catch (IOException e) {
+                throw new WalkException(e);
+            } catch (DirectoryIteratorException e) {
+                throw new WalkException(e.getCause());
+            }
+            for (DirectoryTask task : tasks) {
+                task.join();
+            }
+        }
+    }
+
+    /**
+     * Carries the failure of a directory task to the caller of the parallel walk.
+     */
+    private static class WalkException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        public WalkException(IOException e) {
+            super(e);
+        }
+    }
+
+}
@@ -17,25 +17,217 @@
 package com.peergreen.configuration.simple;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import org.ow2.util.file.FileUtils;
 import org.ow2.util.file.FileUtilsException;
 
+import com.peergreen.configuration.api.Path;
+import com.peergreen.configuration.api.PathPattern;
+import com.peergreen.configuration.api.PathVisitor;
 import com.peergreen.configuration.api.RepositoryException;
 import com.peergreen.configuration.api.Resource;
 import com.peergreen.configuration.api.Version;
+import com.peergreen.configuration.api.VersionedResource;
 import com.peergreen.configuration.api.Write;
 
 /**
- *
+ * Write session working as an overlay on a base version: the working directory only contains the added or changed files
+ * and the removed paths are remembered, all the other paths are read from the base version.
+ * Tagged versions are made of hard links so they share the content of unchanged files with the previous versions.
  * @author Florent Benoit
  */
 public class FileWrite extends FileRead implements Write {
 
+    /**
+     * Directory of the version on which this session is based, null if it starts from an empty content.
+     */
+    private final File baseDirectory;
+
+    /**
+     * Paths removed from the base version.
+     */
+    private final Set<String> removedPaths = Collections.synchronizedSet(new HashSet<String>());
+
+    /**
+     * Catalog to update with the tagged versions, may be null.
+     */
+    private final FileVersionCatalog versionCatalog;
+
+    /**
+     * False once the file system has refused to create a hard link.
+     */
+    private boolean linkSupported = true;
+
+    /**
+     * Resources staged by the current batch for each relative path, a null resource for a removed path. Null if there is
+     * no batch.
+     */
+    private Map<String, Resource> batchResources = null;
+
     public FileWrite(File rootDirectory) {
+        this(rootDirectory, null);
+    }
+
+    public FileWrite(File rootDirectory, File baseDirectory) {
+        this(rootDirectory, baseDirectory, null);
+    }
+
+    public FileWrite(File rootDirectory, File baseDirectory, FileVersionCatalog versionCatalog) {
         super(rootDirectory);
+        this.baseDirectory = baseDirectory;
+        this.versionCatalog = versionCatalog;
+    }
+
+    public File getBaseDirectory() {
+        return baseDirectory;
+    }
+
+    @Override
+    public VersionedResource getResource(String path) throws RepositoryException {
+        if (path == null) {
+            return null;
+        }
+        String relativePath = checkAndGetPath(path);
+        File entry = getResourceFile(relativePath);
+        if (entry.isFile()) {
+            return new FileResource(entry, new FileVersion(getRootDirectory()));
+        }
+
+        // Fall through the base version
+        File baseEntry = getBaseFile(relativePath);
+        if (baseEntry != null && baseEntry.isFile()) {
+            return new FileResource(baseEntry, new FileVersion(getRootDirectory()));
+        }
+        return null;
+    }
+
+    @Override
+    public Map<String, VersionedResource> getResources(Collection<String> paths) throws RepositoryException {
+        Map<String, VersionedResource> resources = new LinkedHashMap<String, VersionedResource>();
+        for (String path : paths) {
+            String relativePath = checkAndGetPath(path);
+            VersionedResource resource = getResource(getResourceFile(relativePath));
+
+            // Fall through the base version
+            if (resource == null) {
+                File baseEntry = getBaseFile(relativePath);
+                if (baseEntry != null) {
+                    resource = getResource(baseEntry);
+                }
+            }
+            if (resource != null) {
+                resources.put(path, resource);
+            }
+        }
+        return resources;
     }
 
+    @Override
+    public List<Path> getPaths() throws RepositoryException {
+        List<Path> paths = super.getPaths();
+        if (baseDirectory == null) {
+            return paths;
+        }
+        return merge(paths, getPaths(baseDirectory, ""));
+    }
+
+    @Override
+    public List<Path> getPaths(String filter) throws RepositoryException {
+        PathPattern pattern = PathPattern.compile(filter);
+        List<Path> paths = getPaths(getRootDirectory(), pattern);
+        if (baseDirectory == null) {
+            return paths;
+        }
+        return merge(paths, getPaths(baseDirectory, pattern));
+    }
+
+    @Override
+    public boolean walkPaths(PathVisitor visitor) throws RepositoryException {
+        return walkMergedPaths(null, visitor);
+    }
+
+    @Override
+    public boolean walkPaths(String filter, PathVisitor visitor) throws RepositoryException {
+        return walkMergedPaths(PathPattern.compile(filter), visitor);
+    }
+
+    /**
+     * Visits the paths of the working directory, then the paths of the base version that have not been changed or removed.
+     * Only the names of the changed paths are kept in memory.
+     * @param pattern the pattern, null for all the paths
+     * @param visitor the visitor receiving each path
+     * @return true if all the paths have been visited, false if the visitor stopped the walk
+     * @throws RepositoryException if the directories can't be walked or if the visitor failed
+     */
+    protected boolean walkMergedPaths(PathPattern pattern, final PathVisitor visitor) throws RepositoryException {
+        final Set<String> changedPaths = new HashSet<String>();
+        boolean completed = walkPaths(getRootDirectory(), pattern, new PathVisitor() {
+            @Override
+            public boolean visit(Path path) throws RepositoryException {
+                changedPaths.add(path.name());
+                return visitor.visit(path);
+            }
+        });
+        if (!completed || baseDirectory == null) {
+            return completed;
+        }
+        return walkPaths(baseDirectory, pattern, new PathVisitor() {
+            @Override
+            public boolean visit(Path path) throws RepositoryException {
+                if (changedPaths.contains(path.name()) || removedPaths.contains(path.name())) {
+                    return true;
+                }
+                return visitor.visit(path);
+            }
+        });
+    }
+
+    /**
+     * Adds to the paths of the working directory the paths of the base version that have not been changed or removed.
+     * @param paths the paths of the working directory
+     * @param basePaths the paths of the base version
+     * @return the paths seen by this session
+     */
+    protected List<Path> merge(List<Path> paths, List<Path> basePaths) {
+        Set<String> changedPaths = new HashSet<String>();
+        for (Path path : paths) {
+            changedPaths.add(path.name());
+        }
+        List<Path> mergedPaths = new ArrayList<Path>(paths);
+        for (Path path : basePaths) {
+            if (!changedPaths.contains(path.name()) && !removedPaths.contains(path.name())) {
+                mergedPaths.add(path);
+            }
+        }
+        return mergedPaths;
+    }
+
+    /**
+     * @param relativePath the '/' separated path of a resource
+     * @return the file of the base version for the given path, or null if the path has been removed or if there is no base version
+     */
+    protected File getBaseFile(String relativePath) {
+        if (baseDirectory == null || removedPaths.contains(relativePath)) {
+            return null;
+        }
+        return new File(baseDirectory, getFilePattern(relativePath));
+    }
 
     @Override
     public void pushResource(String path, Resource resource) throws RepositoryException {
@@ -48,12 +240,86 @@ public class FileWrite extends FileRead implements Write {
             throw new RepositoryException("Cannot push to the path '" + path + "' with a null resource.");
         }
 
-        File entry = checkAndGetResourceFile(path);
+        String relativePath = checkAndGetPath(path);
+
+        // In a batch, the resource is only staged
+        if (batchResources != null) {
+            batchResources.put(relativePath, resource);
+            return;
+        }
+
+        checkConflicts(getRootDirectory(), removedPaths, relativePath);
+        writeResource(getResourceFile(relativePath), path, resource);
+        removedPaths.remove(relativePath);
+    }
+
+    /**
+     * Checks that a file can be added at the given path in the view made of a working directory on top of the base
+     * version: none of its parent directories is a file and it is not a directory.
+     * @param workDirectory the working directory
+     * @param removed the paths removed from the base version
+     * @param relativePath the '/' separated path of the file
+     * @throws RepositoryException if the path conflicts with a file or a directory of the view
+     */
+    protected void checkConflicts(File workDirectory, final Set<String> removed, final String relativePath) throws RepositoryException {
+        // Parent directories of the path are not files
+        int slash = relativePath.indexOf('/');
+        while (slash != -1) {
+            String parent = relativePath.substring(0, slash);
+            if (new File(workDirectory, getFilePattern(parent)).isFile()
+                    || (baseDirectory != null && !removed.contains(parent) && new File(baseDirectory, getFilePattern(parent)).isFile())) {
+                throw new RepositoryException("Cannot add the file '" + relativePath + "', '" + parent + "' is a file");
+            }
+            slash = relativePath.indexOf('/', slash + 1);
+        }
+
+        // The path is not a directory, the walk stops on the first path below it
+        PathPattern pattern = PathPattern.compile(relativePath);
+        boolean directory = !walkPaths(workDirectory, pattern, new PathVisitor() {
+            @Override
+            public boolean visit(Path path) {
+                return path.name().equals(relativePath);
+            }
+        });
+        if (!directory && baseDirectory != null) {
+            directory = !walkPaths(baseDirectory, pattern, new PathVisitor() {
+                @Override
+                public boolean visit(Path path) {
+                    return path.name().equals(relativePath) || removed.contains(path.name());
+                }
+            });
+        }
+        if (directory) {
+            throw new RepositoryException("Cannot add the file '" + relativePath + "', it is a directory");
+        }
+
+        // Only empty directories may be left by removed files
+        File entry = new File(workDirectory, getFilePattern(relativePath));
+        if (entry.isDirectory()) {
+            FileUtils.delete(entry);
+        }
+    }
+
+    /**
+     * Writes the content of a resource to a file.
+     * The file may be linked by tagged versions, it is replaced and never written in place.
+     * @param entry the file to write
+     * @param path the path of the resource
+     * @param resource the resource to write
+     * @throws RepositoryException if the file can't be written
+     */
+    protected void writeResource(File entry, String path, Resource resource) throws RepositoryException {
         entry.getParentFile().mkdirs();
 
+        File tmpEntry = null;
         try {
-            FileUtils.dump(resource.openStream(), entry);
-        } catch (FileUtilsException e) {
+            tmpEntry = Files.createTempFile(entry.getParentFile().toPath(), entry.getName(), ".tmp").toFile();
+            FileUtils.dump(resource.openStream(), tmpEntry);
+            Files.move(tmpEntry.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | FileUtilsException e) {
+            if (tmpEntry != null) {
+                tmpEntry.delete();
+            }
             throw new RepositoryException("Unable to write resource to path '" + path + "'.", e);
         }
     }
@@ -64,25 +330,241 @@ public class FileWrite extends FileRead implements Write {
             throw new RepositoryException("Cannot push an entry with a null path");
         }
 
-        File entry = new File(getRootDirectory(), getFilePattern(path));
-        entry.delete();
+        String relativePath = checkAndGetPath(path);
+
+        // In a batch, the removal is only staged
+        if (batchResources != null) {
+            batchResources.put(relativePath, null);
+            return;
+        }
+
+        // Hide the path of the base version
+        getResourceFile(relativePath).delete();
+        if (baseDirectory != null) {
+            removedPaths.add(relativePath);
+        }
+
+    }
+
+    @Override
+    public void importArchive(InputStream input) throws RepositoryException {
+        importArchive(input, null);
+    }
+
+    @Override
+    public void importArchive(InputStream input, Version version) throws RepositoryException {
+        if (input == null) {
+            throw new RepositoryException("Cannot import an archive from a null stream");
+        }
+
+        // In a batch, the entries are buffered and staged
+        if (batchResources != null) {
+            ZipInputStream zipInputStream = new ZipInputStream(input);
+            try {
+                ZipEntry zipEntry = zipInputStream.getNextEntry();
+                while (zipEntry != null) {
+                    if (!zipEntry.isDirectory()) {
+                        pushResource(zipEntry.getName(), new ArchiveEntryResource(zipInputStream, true));
+                    }
+                    zipEntry = zipInputStream.getNextEntry();
+                }
+            } catch (IOException e) {
+                throw new RepositoryException("Unable to import the archive", e);
+            }
+        } else {
+            // Files are written in a copy of the working directory while the archive is read, it replaces the working
+            // directory once all the entries are written so an invalid archive leaves the working directory unchanged
+            File stagingDirectory = newStagingDirectory();
+            Set<String> stagedRemovedPaths = new HashSet<String>(removedPaths);
+            ZipInputStream zipInputStream = new ZipInputStream(input);
+            try {
+                linkWorkDirectory(stagingDirectory);
+                ZipEntry zipEntry = zipInputStream.getNextEntry();
+                while (zipEntry != null) {
+                    if (!zipEntry.isDirectory()) {
+                        String relativePath = checkAndGetPath(zipEntry.getName());
+                        checkConflicts(stagingDirectory, stagedRemovedPaths, relativePath);
+                        File stagingEntry = new File(stagingDirectory, getFilePattern(relativePath));
+                        writeResource(stagingEntry, zipEntry.getName(), new ArchiveEntryResource(zipInputStream, false));
+                        stagedRemovedPaths.remove(relativePath);
+                    }
+                    zipEntry = zipInputStream.getNextEntry();
+                }
+                replaceWorkDirectory(stagingDirectory, stagedRemovedPaths);
+            } catch (IOException | RepositoryException e) {
+                FileUtils.delete(stagingDirectory);
+                throw new RepositoryException("Unable to import the archive, no change has been applied", e);
+            }
+        }
+
+        if (version != null) {
+            tag(version);
+        }
+    }
 
+    @Override
+    public void beginBatch() throws RepositoryException {
+        if (batchResources != null) {
+            throw new RepositoryException("A batch is in progress, it needs to be committed or cancelled first");
+        }
+        this.batchResources = new LinkedHashMap<String, Resource>();
+    }
+
+    @Override
+    public void commitBatch() throws RepositoryException {
+        if (batchResources == null) {
+            throw new RepositoryException("Cannot commit a batch, no batch has been started");
+        }
+        Map<String, Resource> resources = batchResources;
+        this.batchResources = null;
+
+        // The changes are applied on a copy of the working directory, so a failure leaves the working directory unchanged
+        File stagingDirectory = newStagingDirectory();
+        Set<String> stagedRemovedPaths = new HashSet<String>(removedPaths);
+        try {
+            linkWorkDirectory(stagingDirectory);
+            // Removals first, a removed file may be replaced by a directory
+            for (Map.Entry<String, Resource> resource : resources.entrySet()) {
+                if (resource.getValue() == null) {
+                    new File(stagingDirectory, getFilePattern(resource.getKey())).delete();
+                    if (baseDirectory != null) {
+                        stagedRemovedPaths.add(resource.getKey());
+                    }
+                }
+            }
+            for (Map.Entry<String, Resource> resource : resources.entrySet()) {
+                if (resource.getValue() != null) {
+                    checkConflicts(stagingDirectory, stagedRemovedPaths, resource.getKey());
+                    File stagingEntry = new File(stagingDirectory, getFilePattern(resource.getKey()));
+                    writeResource(stagingEntry, resource.getKey(), resource.getValue());
+                    stagedRemovedPaths.remove(resource.getKey());
+                }
+            }
+            replaceWorkDirectory(stagingDirectory, stagedRemovedPaths);
+        } catch (IOException | RepositoryException e) {
+            FileUtils.delete(stagingDirectory);
+            throw new RepositoryException("Unable to commit the batch, no change has been applied", e);
+        }
+    }
+
+    /**
+     * @return a new hidden directory next to the working directory, not created yet
+     */
+    protected File newStagingDirectory() {
+        File workDirectory = getRootDirectory();
+        return new File(workDirectory.getParentFile(), "." + workDirectory.getName() + "-" + UUID.randomUUID());
+    }
+
+    /**
+     * Copies the working directory into the given staging directory, the files are hard links so their content is
+     * shared. Changes are then applied on the copy, see {@link #replaceWorkDirectory(File, Set)}.
+     * @param stagingDirectory the staging directory, not existing yet
+     * @throws IOException if a file can't be linked nor copied
+     * @throws RepositoryException if the working directory can't be listed
+     */
+    protected void linkWorkDirectory(File stagingDirectory) throws IOException, RepositoryException {
+        stagingDirectory.mkdirs();
+        for (Path path : super.getPaths()) {
+            File stagingEntry = new File(stagingDirectory, getFilePattern(path.name()));
+            stagingEntry.getParentFile().mkdirs();
+            link(getResourceFile(path.name()), stagingEntry);
+        }
+    }
+
+    /**
+     * Replaces the working directory by a staging directory once all the changes are applied on it. The previous
+     * working directory is moved back if the staging one can't be moved.
+     * @param stagingDirectory the staging directory
+     * @param stagedRemovedPaths the paths of the base version removed in the staging directory
+     * @throws IOException if the directories can't be moved, the working directory is then unchanged
+     */
+    protected void replaceWorkDirectory(File stagingDirectory, Set<String> stagedRemovedPaths) throws IOException {
+        File workDirectory = getRootDirectory();
+        File oldDirectory = newStagingDirectory();
+        if (workDirectory.exists()) {
+            Files.move(workDirectory.toPath(), oldDirectory.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        try {
+            Files.move(stagingDirectory.toPath(), workDirectory.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            if (oldDirectory.exists()) {
+                Files.move(oldDirectory.toPath(), workDirectory.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            throw e;
+        }
+        synchronized (removedPaths) {
+            removedPaths.clear();
+            removedPaths.addAll(stagedRemovedPaths);
+        }
+        FileUtils.delete(oldDirectory);
+    }
+
+    @Override
+    public void cancelBatch() throws RepositoryException {
+        if (batchResources == null) {
+            throw new RepositoryException("Cannot cancel a batch, no batch has been started");
+        }
+        this.batchResources = null;
+    }
+
+    @Override
+    public boolean isInBatch() {
+        return batchResources != null;
     }
 
     @Override
     public void tag(Version version) throws RepositoryException {
+        if (batchResources != null) {
+            throw new RepositoryException("A batch is in progress, it needs to be committed or cancelled first");
+        }
 
         File tagDirectory =new File(getRootDirectory().getParentFile(), version.getName());
         if (tagDirectory.exists()) {
             throw new RepositoryException("Version '" + version.getName() + "' alread exists'");
         }
 
-        //get parent
+        // Link the merged view of the base version and of the changes, the content of the files is shared.
+        // The version is prepared in a hidden directory and renamed once complete.
+        File tmpDirectory = new File(tagDirectory.getParentFile(), "." + version.getName() + "-" + UUID.randomUUID());
         try {
-            FileUtils.copyDirectory(getRootDirectory(), tagDirectory);
-        } catch (FileUtilsException e) {
+            tmpDirectory.mkdirs();
+            for (Path path : getPaths()) {
+                File entry = getResourceFile(path.name());
+                if (!entry.isFile()) {
+                    entry = getBaseFile(path.name());
+                }
+                File tagEntry = new File(tmpDirectory, getFilePattern(path.name()));
+                tagEntry.getParentFile().mkdirs();
+                link(entry, tagEntry);
+            }
+            Files.move(tmpDirectory.toPath(), tagDirectory.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            FileUtils.delete(tmpDirectory);
             throw new RepositoryException("Unable to tag the version '" + version.getName() + "'.", e);
         }
+        if (versionCatalog != null) {
+            versionCatalog.add(tagDirectory);
+        }
+    }
+
+    /**
+     * Creates a hard link to the given file, or a copy if the file system does not support hard links.
+     * @param source the existing file
+     * @param target the file to create
+     * @throws IOException if the file can't be linked nor copied
+     */
+    protected void link(File source, File target) throws IOException {
+        if (linkSupported) {
+            try {
+                Files.createLink(target.toPath(), source.toPath());
+                return;
+            } catch (UnsupportedOperationException e) {
+                linkSupported = false;
+            } catch (FileSystemException e) {
+                // e.g. another file system or too many links, copy this one
+            }
+        }
+        Files.copy(source.toPath(), target.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
     }
 
     @Override
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.simple.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.UUID;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.peergreen.configuration.api.RepositoryException;
+import com.peergreen.configuration.api.Version;
+import com.peergreen.configuration.api.Write;
+import com.peergreen.configuration.api.test.AbsTest;
+import com.peergreen.configuration.api.test.DummyVersion;
+import com.peergreen.configuration.simple.FileConfigRepository;
+
+/**
+ * Test the production pointer of the simple repository and the production copied by a previous release.
+ * @author Florent Benoit
+ */
+@Test
+public class TestFileProductionVersion extends AbsTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File rootDirectory = new File("target", TestFileProductionVersion.class.getSimpleName() + "-" + UUID.randomUUID());
+
+    public void pointerFile() throws IOException, RepositoryException {
+        File directory = new File(rootDirectory, "pointer");
+        FileConfigRepository repository = new FileConfigRepository(directory);
+        try {
+            Version version1 = tag(repository, "content1");
+            Version version2 = tag(repository, "content2");
+
+            repository.setProductionVersion(version1);
+            Assert.assertEquals(readPointer(directory), version1.getName());
+            Assert.assertEquals(repository.getProductionVersion().getName(), version1.getName());
+
+            // Only the pointer is replaced, the versions are kept
+            repository.setProductionVersion(version2);
+            Assert.assertEquals(readPointer(directory), version2.getName());
+            Assert.assertEquals(getContent(repository.read(), "entry.xml"), "content2");
+            Assert.assertEquals(getContent(repository.read(new DummyVersion("PRODUCTION")), "entry.xml"), "content2");
+            Assert.assertTrue(new File(directory, version1.getName()).isDirectory());
+            Assert.assertFalse(new File(directory, "PRODUCTION").exists());
+
+            // Production alias keeps the current version
+            repository.setProductionVersion(new DummyVersion("PRODUCTION"));
+            Assert.assertEquals(readPointer(directory), version2.getName());
+        } finally {
+            repository.close();
+        }
+    }
+
+    public void pointerReadOnOpen() throws IOException, RepositoryException {
+        File directory = new File(rootDirectory, "reopen");
+        FileConfigRepository repository = new FileConfigRepository(directory);
+        Version version;
+        try {
+            version = tag(repository, "content");
+            repository.setProductionVersion(version);
+        } finally {
+            repository.close();
+        }
+
+        FileConfigRepository reopened = new FileConfigRepository(directory);
+        try {
+            Assert.assertEquals(reopened.getProductionVersion().getName(), version.getName());
+            Assert.assertEquals(getContent(reopened.read(), "entry.xml"), "content");
+        } finally {
+            reopened.close();
+        }
+    }
+
+    public void legacyProduction() throws IOException, RepositoryException {
+        File directory = createLegacyProduction("legacy");
+        FileConfigRepository repository = new FileConfigRepository(directory);
+        try {
+            Assert.assertEquals(repository.getProductionVersion().getName(), "PRODUCTION");
+            Assert.assertEquals(getContent(repository.read(), "conf/entry.xml"), "legacy");
+            Assert.assertTrue(repository.getVersions().isEmpty());
+        } finally {
+            repository.close();
+        }
+    }
+
+    public void legacyProductionMigratedByAlias() throws IOException, RepositoryException {
+        File directory = createLegacyProduction("alias");
+        FileConfigRepository repository = new FileConfigRepository(directory);
+        try {
+            repository.setProductionVersion(new DummyVersion("PRODUCTION"));
+
+            // The pointer names a version holding the content of the copied production
+            String name = readPointer(directory);
+            Assert.assertNotEquals(name, "PRODUCTION");
+            Assert.assertTrue(new File(directory, name).isDirectory());
+            Assert.assertFalse(new File(directory, "PRODUCTION").exists());
+            Assert.assertEquals(repository.getProductionVersion().getName(), name);
+            Assert.assertEquals(repository.getVersions().size(), 1);
+            Assert.assertEquals(repository.getVersions().get(0).getName(), name);
+            Assert.assertEquals(getContent(repository.read(), "conf/entry.xml"), "legacy");
+            Assert.assertEquals(getContent(repository.read(new DummyVersion(name)), "conf/entry.xml"), "legacy");
+        } finally {
+            repository.close();
+        }
+
+        FileConfigRepository reopened = new FileConfigRepository(directory);
+        try {
+            Assert.assertEquals(getContent(reopened.read(), "conf/entry.xml"), "legacy");
+        } finally {
+            reopened.close();
+        }
+    }
+
+    public void legacyProductionReplaced() throws IOException, RepositoryException {
+        File directory = createLegacyProduction("replaced");
+        FileConfigRepository repository = new FileConfigRepository(directory);
+        try {
+            Version version = tag(repository, "content");
+            repository.setProductionVersion(version);
+
+            Assert.assertEquals(readPointer(directory), version.getName());
+            Assert.assertFalse(new File(directory, "PRODUCTION").exists());
+            Assert.assertEquals(getContent(repository.read(), "entry.xml"), "content");
+        } finally {
+            repository.close();
+        }
+    }
+
+    protected Version tag(FileConfigRepository repository, String content) throws IOException, RepositoryException {
+        Write write = repository.init();
+        checkEntry(write, "entry.xml", content);
+        Version version = new DummyVersion(UUID.randomUUID().toString());
+        write.tag(version);
+        return version;
+    }
+
+    protected File createLegacyProduction(String name) throws IOException {
+        File directory = new File(rootDirectory, name);
+        File entry = new File(new File(directory, "PRODUCTION"), "conf" + File.separator + "entry.xml");
+        entry.getParentFile().mkdirs();
+        Files.write(entry.toPath(), "legacy".getBytes(UTF_8));
+        return directory;
+    }
+
+    protected String readPointer(File directory) throws IOException {
+        return new String(Files.readAllBytes(new File(directory, "PRODUCTION.version").toPath()), UTF_8);
+    }
+
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.simple.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.peergreen.configuration.api.ConfigRepository;
+import com.peergreen.configuration.api.RepositoryException;
+import com.peergreen.configuration.api.Version;
+import com.peergreen.configuration.api.Write;
+import com.peergreen.configuration.api.test.AbsTest;
+import com.peergreen.configuration.api.test.DummyVersion;
+import com.peergreen.configuration.simple.FileConfiguration;
+import com.peergreen.configuration.simple.FileRepositoryAccess;
+
+/**
+ * Test that the repositories of the simple configuration are shared by their callers.
+ * @author Florent Benoit
+ */
+@Test
+public class TestFileSharedRepository extends AbsTest {
+
+    private final FileConfiguration configuration;
+
+    public TestFileSharedRepository() throws RepositoryException {
+        this.configuration = new FileConfiguration();
+        configuration.setRootDirectory(new File("target", TestFileSharedRepository.class.getSimpleName() + "-" + UUID.randomUUID()));
+    }
+
+    public void sharedByName() throws RepositoryException {
+        FileRepositoryAccess repository1 = (FileRepositoryAccess) configuration.getRepository("shared");
+        FileRepositoryAccess repository2 = (FileRepositoryAccess) configuration.getRepository("shared");
+        FileRepositoryAccess other = (FileRepositoryAccess) configuration.getRepository("other");
+        try {
+            Assert.assertNotSame(repository1, repository2);
+            Assert.assertSame(repository1.getFileConfigRepository(), repository2.getFileConfigRepository());
+            Assert.assertNotSame(repository1.getFileConfigRepository(), other.getFileConfigRepository());
+        } finally {
+            repository1.close();
+            repository2.close();
+            other.close();
+        }
+    }
+
+    public void disposedOnceClosedByAll() throws IOException, RepositoryException {
+        FileRepositoryAccess repository1 = (FileRepositoryAccess) configuration.getRepository("closed");
+        FileRepositoryAccess repository2 = (FileRepositoryAccess) configuration.getRepository("closed");
+
+        // Still used by the second caller, closing twice only releases the reference of the first one
+        repository1.close();
+        repository1.close();
+        Assert.assertTrue(repository1.isClosed());
+        FileRepositoryAccess repository3 = (FileRepositoryAccess) configuration.getRepository("closed");
+        Assert.assertSame(repository3.getFileConfigRepository(), repository2.getFileConfigRepository());
+        Write write = repository3.init();
+        checkEntry(write, "entry.xml", "content");
+        Version version = new DummyVersion(UUID.randomUUID().toString());
+        write.tag(version);
+        Assert.assertEquals(repository2.getVersions().size(), 1);
+        repository2.close();
+        repository3.close();
+
+        // Opened again from the disk
+        FileRepositoryAccess reopened = (FileRepositoryAccess) configuration.getRepository("closed");
+        try {
+            Assert.assertNotSame(reopened.getFileConfigRepository(), repository2.getFileConfigRepository());
+            Assert.assertEquals(reopened.getVersions().size(), 1);
+            Assert.assertEquals(getContent(reopened.read(version), "entry.xml"), "content");
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test(expectedExceptions=RepositoryException.class)
+    public void closedAccess() throws RepositoryException {
+        ConfigRepository repository = configuration.getRepository("access");
+        repository.close();
+        repository.getVersions();
+    }
+
+    public void walkModeByAccess() throws IOException, RepositoryException {
+        FileRepositoryAccess parallel = (FileRepositoryAccess) configuration.getRepository("walk");
+        FileRepositoryAccess sequential = (FileRepositoryAccess) configuration.getRepository("walk");
+        try {
+            parallel.setParallelWalk(true);
+            Assert.assertTrue(parallel.isParallelWalk());
+            Assert.assertFalse(sequential.isParallelWalk());
+
+            Write write = parallel.init();
+            checkEntry(write, "dir/entry.xml", "content");
+            Version version = new DummyVersion(UUID.randomUUID().toString());
+            write.tag(version);
+            Assert.assertEquals(parallel.read(version).getPaths().size(), 1);
+            Assert.assertEquals(sequential.read(version).getPaths().size(), 1);
+        } finally {
+            parallel.close();
+            sequential.close();
+        }
+    }
+
+}
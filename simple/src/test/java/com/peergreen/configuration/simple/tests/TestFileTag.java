@@ -0,0 +1,157 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.simple.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.UUID;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.peergreen.configuration.api.RepositoryException;
+import com.peergreen.configuration.api.Version;
+import com.peergreen.configuration.api.Write;
+import com.peergreen.configuration.api.test.AbsTest;
+import com.peergreen.configuration.api.test.DummyVersion;
+import com.peergreen.configuration.simple.FileConfigRepository;
+
+/**
+ * Test the tags of the simple repository, made of hard links to the files of the write session.
+ * @author Florent Benoit
+ */
+@Test
+public class TestFileTag extends AbsTest {
+
+    private final File rootDirectory = new File("target", TestFileTag.class.getSimpleName() + "-" + UUID.randomUUID());
+
+    public void sharedContent() throws IOException, RepositoryException {
+        File directory = new File(rootDirectory, "shared");
+        FileConfigRepository repository = new FileConfigRepository(directory);
+        try {
+            Write write = repository.init();
+            checkEntry(write, "conf/entry.xml", "content");
+            Version version = new DummyVersion(UUID.randomUUID().toString());
+            write.tag(version);
+
+            // The tagged file is the file of the session, not a copy
+            File entry = new File(new File(directory, "WORK"), "conf" + File.separator + "entry.xml");
+            File tagEntry = new File(new File(directory, version.getName()), "conf" + File.separator + "entry.xml");
+            Assert.assertTrue(Files.isSameFile(entry.toPath(), tagEntry.toPath()));
+            Assert.assertEquals(getContent(repository.read(version), "conf/entry.xml"), "content");
+        } finally {
+            repository.close();
+        }
+    }
+
+    public void tagNotChangedByWrites() throws IOException, RepositoryException {
+        File directory = new File(rootDirectory, "writes");
+        FileConfigRepository repository = new FileConfigRepository(directory);
+        try {
+            Write write = repository.init();
+            checkEntry(write, "entry.xml", "content1");
+            Version version = new DummyVersion(UUID.randomUUID().toString());
+            write.tag(version);
+
+            // Files are replaced, the link of the tag keeps the previous content
+            checkEntry(write, "entry.xml", "content2");
+            Assert.assertEquals(getContent(repository.read(version), "entry.xml"), "content1");
+            Assert.assertEquals(getContent(write, "entry.xml"), "content2");
+        } finally {
+            repository.close();
+        }
+    }
+
+    public void tagOverlay() throws IOException, RepositoryException {
+        File directory = new File(rootDirectory, "overlay");
+        FileConfigRepository repository = new FileConfigRepository(directory);
+        try {
+            Write write = repository.init();
+            checkEntry(write, "kept.xml", "kept");
+            checkEntry(write, "changed.xml", "base");
+            checkEntry(write, "removed.xml", "removed");
+            Version baseVersion = new DummyVersion(UUID.randomUUID().toString());
+            write.tag(baseVersion);
+
+            Write overlay = repository.init(baseVersion);
+            checkEntry(overlay, "changed.xml", "changed");
+            overlay.removeResource("removed.xml");
+            Version version = new DummyVersion(UUID.randomUUID().toString());
+            overlay.tag(version);
+
+            // Unchanged files are linked from the base version
+            File baseEntry = new File(new File(directory, baseVersion.getName()), "kept.xml");
+            File tagEntry = new File(new File(directory, version.getName()), "kept.xml");
+            Assert.assertTrue(Files.isSameFile(baseEntry.toPath(), tagEntry.toPath()));
+            Assert.assertEquals(getContent(repository.read(version), "kept.xml"), "kept");
+            Assert.assertEquals(getContent(repository.read(version), "changed.xml"), "changed");
+            Assert.assertNull(repository.read(version).getResource("removed.xml"));
+            Assert.assertEquals(repository.read(version).getPaths().size(), 2);
+
+            // Base version is unchanged
+            Assert.assertEquals(getContent(repository.read(baseVersion), "changed.xml"), "base");
+            Assert.assertEquals(getContent(repository.read(baseVersion), "removed.xml"), "removed");
+        } finally {
+            repository.close();
+        }
+    }
+
+    public void tagListedAndComplete() throws IOException, RepositoryException {
+        File directory = new File(rootDirectory, "listed");
+        FileConfigRepository repository = new FileConfigRepository(directory);
+        try {
+            Write write = repository.init();
+            checkEntry(write, "entry.xml", "content");
+            Version version = new DummyVersion(UUID.randomUUID().toString());
+            write.tag(version);
+
+            Assert.assertEquals(repository.getVersions().size(), 1);
+            Assert.assertEquals(repository.getVersions().get(0).getName(), version.getName());
+
+            // No hidden directory is left once the tag has been renamed
+            for (String name : directory.list()) {
+                Assert.assertFalse(name.startsWith("."), "Directory '" + name + "' left by the tag");
+            }
+        } finally {
+            repository.close();
+        }
+    }
+
+    public void tagAlreadyExists() throws IOException, RepositoryException {
+        File directory = new File(rootDirectory, "exists");
+        FileConfigRepository repository = new FileConfigRepository(directory);
+        try {
+            Write write = repository.init();
+            checkEntry(write, "entry.xml", "content1");
+            Version version = new DummyVersion(UUID.randomUUID().toString());
+            write.tag(version);
+
+            checkEntry(write, "entry.xml", "content2");
+            try {
+                write.tag(version);
+                Assert.fail("The version already exists");
+            } catch (RepositoryException e) {
+                // Expected
+            }
+            Assert.assertEquals(getContent(repository.read(version), "entry.xml"), "content1");
+        } finally {
+            repository.close();
+        }
+    }
+
+}
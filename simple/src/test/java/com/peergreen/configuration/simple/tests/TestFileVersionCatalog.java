@@ -0,0 +1,151 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.simple.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.peergreen.configuration.simple.FileVersionCatalog;
+
+/**
+ * Test the catalog of the version directories, kept current by the watch service or by a check of the disk on a miss.
+ * @author Florent Benoit
+ */
+@Test
+public class TestFileVersionCatalog {
+
+    private static final long TIMEOUT = 30000L;
+
+    private final File rootDirectory = new File("target", TestFileVersionCatalog.class.getSimpleName() + "-" + UUID.randomUUID());
+
+    public void initialListing() {
+        File directory = new File(rootDirectory, "listing");
+        new File(directory, "v1").mkdirs();
+        new File(directory, "v2").mkdirs();
+        new File(directory, ".hidden").mkdirs();
+
+        FileVersionCatalog catalog = new FileVersionCatalog(directory);
+        Assert.assertEquals(catalog.getEntries().size(), 2);
+        Assert.assertNotNull(catalog.get("v1"));
+        Assert.assertNotNull(catalog.get("v2"));
+        Assert.assertNull(catalog.get(".hidden"));
+    }
+
+    public void missChecksDisk() {
+        File directory = new File(rootDirectory, "miss");
+        directory.mkdirs();
+        TestCatalog catalog = new TestCatalog(directory);
+
+        // Not watched, the directory is only found when it is looked up
+        new File(directory, "v1").mkdirs();
+        Assert.assertNull(catalog.get("v1"));
+        Assert.assertTrue(catalog.contains("v1"));
+        Assert.assertNotNull(catalog.get("v1"));
+        Assert.assertEquals(catalog.added, Collections.singletonList("v1"));
+
+        // Only the version directories are found
+        new File(directory, ".hidden").mkdirs();
+        new File(directory, "v1" + File.separator + "sub").mkdirs();
+        Assert.assertFalse(catalog.contains("missing"));
+        Assert.assertFalse(catalog.contains(".hidden"));
+        Assert.assertFalse(catalog.contains("v1/sub"));
+        Assert.assertFalse(catalog.contains(""));
+        Assert.assertEquals(catalog.getEntries().size(), 1);
+
+        // A removed directory is forgotten on reload
+        new File(directory, "v1" + File.separator + "sub").delete();
+        new File(directory, "v1").delete();
+        catalog.reload();
+        Assert.assertNull(catalog.get("v1"));
+    }
+
+    public void watcher() throws IOException, InterruptedException {
+        File directory = new File(rootDirectory, "watcher");
+        directory.mkdirs();
+        TestCatalog catalog = new TestCatalog(directory);
+        catalog.start();
+        try {
+            // Only checked if the file system can be watched
+            if (!catalog.isWatching()) {
+                return;
+            }
+
+            // Added without any lookup
+            new File(directory, "v1").mkdirs();
+            long end = System.currentTimeMillis() + TIMEOUT;
+            while (catalog.get("v1") == null && System.currentTimeMillis() < end) {
+                Thread.sleep(50L);
+            }
+            Assert.assertNotNull(catalog.get("v1"));
+            Assert.assertEquals(catalog.added, Collections.singletonList("v1"));
+
+            // Files are reported, hidden directories are not versions
+            new File(directory, ".hidden").mkdirs();
+            Files.write(new File(directory, "file").toPath(), new byte[] {1});
+            end = System.currentTimeMillis() + TIMEOUT;
+            while (!catalog.changed.contains("file") && System.currentTimeMillis() < end) {
+                Thread.sleep(50L);
+            }
+            Assert.assertTrue(catalog.changed.contains("file"));
+            Assert.assertNull(catalog.get(".hidden"));
+
+            // Removed without any reload
+            new File(directory, "v1").delete();
+            end = System.currentTimeMillis() + TIMEOUT;
+            while (catalog.get("v1") != null && System.currentTimeMillis() < end) {
+                Thread.sleep(50L);
+            }
+            Assert.assertNull(catalog.get("v1"));
+        } finally {
+            catalog.stop();
+        }
+        Assert.assertFalse(catalog.isWatching());
+    }
+
+    /**
+     * Catalog recording the callbacks.
+     */
+    private static class TestCatalog extends FileVersionCatalog {
+
+        private final List<String> added = new CopyOnWriteArrayList<String>();
+
+        private final List<String> changed = new CopyOnWriteArrayList<String>();
+
+        public TestCatalog(File rootDirectory) {
+            super(rootDirectory);
+        }
+
+        @Override
+        protected void versionAdded(Entry entry) {
+            added.add(entry.getName());
+        }
+
+        @Override
+        protected void fileChanged(String name) {
+            changed.add(name);
+        }
+    }
+
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright 2012 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.peergreen.configuration.simple.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.peergreen.configuration.api.Path;
+import com.peergreen.configuration.api.RepositoryException;
+import com.peergreen.configuration.simple.FileWalker;
+
+/**
+ * Test that the sequential and the parallel walks list the same paths and fail the same way.
+ * @author Florent Benoit
+ */
+@Test
+public class TestFileWalker {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File rootDirectory = new File("target", TestFileWalker.class.getSimpleName() + "-" + UUID.randomUUID());
+
+    public void tree() throws IOException, RepositoryException {
+        File directory = new File(rootDirectory, "tree");
+        for (int i = 0; i < 5; i++) {
+            for (int j = 0; j < 5; j++) {
+                createFile(directory, "dir" + i + "/sub" + j + "/entry" + i + j + ".xml", "content" + i + j);
+            }
+            createFile(directory, "dir" + i + "/entry" + i + ".xml", "content" + i);
+        }
+        createFile(directory, "entry.xml", "content");
+        new File(directory, "empty").mkdirs();
+
+        List<String> paths = walk(FileWalker.SEQUENTIAL, directory, "");
+        Assert.assertEquals(paths.size(), 31);
+        Assert.assertTrue(paths.contains("dir3/sub2/entry32.xml:9"));
+        Assert.assertEquals(walk(FileWalker.PARALLEL, directory, ""), paths);
+
+        // Names are prefixed in both walks
+        List<String> prefixed = walk(FileWalker.SEQUENTIAL, new File(directory, "dir1"), "dir1");
+        Assert.assertEquals(prefixed.size(), 6);
+        Assert.assertTrue(prefixed.contains("dir1/sub0/entry10.xml:9"));
+        Assert.assertEquals(walk(FileWalker.PARALLEL, new File(directory, "dir1"), "dir1"), prefixed);
+    }
+
+    public void missingDirectory() throws RepositoryException {
+        File directory = new File(rootDirectory, "missing");
+        Assert.assertTrue(walk(FileWalker.SEQUENTIAL, directory, "").isEmpty());
+        Assert.assertTrue(walk(FileWalker.PARALLEL, directory, "").isEmpty());
+    }
+
+    public void linkedDirectory() throws IOException, RepositoryException {
+        File directory = new File(rootDirectory, "linked");
+        createFile(directory, "shared/entry.xml", "content");
+        createFile(directory, "other/entry.xml", "content");
+        Files.createSymbolicLink(new File(directory, "other/link").toPath(), new File("../shared").toPath());
+
+        // A directory reached by a link is listed under each name
+        List<String> paths = walk(FileWalker.SEQUENTIAL, directory, "");
+        Assert.assertEquals(paths, sort("other/entry.xml:7", "other/link/entry.xml:7", "shared/entry.xml:7"));
+        Assert.assertEquals(walk(FileWalker.PARALLEL, directory, ""), paths);
+    }
+
+    public void linkLoop() throws IOException, RepositoryException {
+        File directory = new File(rootDirectory, "loop");
+        createFile(directory, "dir/entry.xml", "content");
+        Files.createSymbolicLink(new File(directory, "dir/loop").toPath(), new File("..").toPath());
+        Files.createSymbolicLink(new File(directory, "dir/self").toPath(), new File("self").toPath());
+        Files.createSymbolicLink(new File(directory, "dir/broken").toPath(), new File("missing").toPath());
+
+        // Loops and broken links are skipped
+        List<String> paths = walk(FileWalker.SEQUENTIAL, directory, "");
+        Assert.assertEquals(paths, sort("dir/entry.xml:7"));
+        Assert.assertEquals(walk(FileWalker.PARALLEL, directory, ""), paths);
+    }
+
+    public void unreadableDirectory() throws IOException, RepositoryException {
+        File directory = new File(rootDirectory, "unreadable");
+        createFile(directory, "dir/entry.xml", "content");
+        File unreadable = new File(directory, "dir");
+        unreadable.setReadable(false);
+        try {
+            // Not checked if the user reads any directory
+            if (unreadable.list() != null) {
+                return;
+            }
+            checkWalkFails(FileWalker.SEQUENTIAL, directory);
+            checkWalkFails(FileWalker.PARALLEL, directory);
+        } finally {
+            unreadable.setReadable(true);
+        }
+    }
+
+    protected void checkWalkFails(FileWalker walker, File directory) {
+        try {
+            walker.walk(directory, "");
+            Assert.fail("The walk should have failed on an unreadable directory");
+        } catch (RepositoryException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    protected List<String> walk(FileWalker walker, File directory, String prefix) throws RepositoryException {
+        List<String> paths = new ArrayList<String>();
+        for (Path path : walker.walk(directory, prefix)) {
+            paths.add(path.name() + ":" + path.size());
+        }
+        Collections.sort(paths);
+        return paths;
+    }
+
+    protected List<String> sort(String... paths) {
+        List<String> list = new ArrayList<String>();
+        Collections.addAll(list, paths);
+        Collections.sort(list);
+        return list;
+    }
+
+    protected void createFile(File directory, String path, String content) throws IOException {
+        File file = new File(directory, path.replace("/", File.separator));
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(UTF_8));
+    }
+
+}